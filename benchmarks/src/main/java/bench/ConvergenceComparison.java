@@ -0,0 +1,128 @@
+package bench;
+
+import java.util.Random;
+
+import rbm.SimpleLayeredRBM;
+import rbm.SimpleRBM;
+import rbm.TrainingConfig;
+
+/*
+ * Class: ConvergenceComparison
+ *
+ * Compares the synchronous mini-batch trainer with the lock-free
+ * asynchronous one on the same data and starting weights: wall time and
+ * mean-field reconstruction error after every epoch.  Time per epoch alone
+ * (TrainingBenchmark) does not show whether the lost updates of asynchronous
+ * training cost accuracy, so this is a plain program rather than a JMH
+ * benchmark.
+ *
+ * Usage: java -cp benchmarks.jar bench.ConvergenceComparison
+ *            [inputs hidden density epochs threads]
+ *
+ * The data are noisy copies of a few random prototypes, so a good model
+ * reconstructs them much better than chance.
+ */
+public class ConvergenceComparison {
+
+    private static final int ROWS = 2000;
+    private static final int PROTOTYPES = 8;
+    private static final double NOISE = 0.05;
+
+    public static void main(String[] args) {
+        int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int hidden = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        double density = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+        int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        boolean[][] data = prototypes(inputs, density);
+        System.out.printf("%d rows of %d inputs (density %.2f), %d hidden, %d threads%n",
+                ROWS, inputs, density, hidden, threads);
+        System.out.printf("%5s  %10s %10s  %10s %10s%n",
+                "epoch", "sync ms", "sync err", "async ms", "async err");
+
+        SimpleLayeredRBM sync = new SimpleLayeredRBM(inputs, new int[] {hidden}, 7L);
+        SimpleLayeredRBM async = new SimpleLayeredRBM(inputs, new int[] {hidden}, 7L);
+        TrainingConfig syncConfig = config(threads, false);
+        TrainingConfig asyncConfig = config(threads, true);
+
+        long syncNanos = 0;
+        long asyncNanos = 0;
+        for (int epoch = 1; epoch <= epochs; epoch++) {
+            syncConfig.setSeed((long) epoch);
+            asyncConfig.setSeed((long) epoch);
+
+            long start = System.nanoTime();
+            sync.layeredLearn(data, 1, syncConfig);
+            syncNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            async.layeredLearn(data, 1, asyncConfig);
+            asyncNanos += System.nanoTime() - start;
+
+            System.out.printf("%5d  %10.1f %10.4f  %10.1f %10.4f%n", epoch,
+                    syncNanos / 1e6, reconstructionError(sync.getLayer(0), data),
+                    asyncNanos / 1e6, reconstructionError(async.getLayer(0), data));
+        }
+    }
+
+    private static TrainingConfig config(int threads, boolean asynchronous) {
+        TrainingConfig config = new TrainingConfig();
+        config.setThreads(threads);
+        config.setBatchSize(10);
+        config.setAsynchronous(asynchronous);
+        return config;
+    }
+
+    static boolean[][] prototypes(int inputs, double density) {
+        Random rand = new Random(11);
+        boolean[][] prototypes = new boolean[PROTOTYPES][];
+        for (int p = 0; p < PROTOTYPES; p++) {
+            prototypes[p] = Inputs.row(inputs, density, rand);
+        }
+        boolean[][] data = new boolean[ROWS][inputs];
+        for (int r = 0; r < ROWS; r++) {
+            boolean[] prototype = prototypes[rand.nextInt(PROTOTYPES)];
+            for (int i = 0; i < inputs; i++) {
+                // flips about NOISE of a row's on bits' worth of inputs
+                data[r][i] = prototype[i] ^ (rand.nextDouble() < NOISE * density);
+            }
+        }
+        return data;
+    }
+
+    /*
+     * Method: reconstructionError
+     *
+     * mean over rows of the squared difference between each input and its
+     * probability after one mean-field pass up and back down
+     */
+    static double reconstructionError(SimpleRBM rbm, boolean[][] data) {
+        float[] w = rbm.getFlatWeights();
+        int numVisible = rbm.getNumVisible();
+        int numHidden = rbm.getNumHidden();
+        float[] h = new float[numHidden];
+        double error = 0;
+        for (boolean[] row : data) {
+            for (int j = 0; j < numHidden - 1; j++) {
+                float sum = w[(numVisible - 1) * numHidden + j];
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i]) {
+                        sum += w[i * numHidden + j];
+                    }
+                }
+                h[j] = (float) (1 / (1 + Math.exp(-sum)));
+            }
+            h[numHidden - 1] = 1;
+            for (int i = 0; i < row.length; i++) {
+                float sum = 0;
+                for (int j = 0; j < numHidden; j++) {
+                    sum += h[j] * w[i * numHidden + j];
+                }
+                double d = (row[i] ? 1 : 0) - 1 / (1 + Math.exp(-sum));
+                error += d * d;
+            }
+        }
+        return error / data.length;
+    }
+}
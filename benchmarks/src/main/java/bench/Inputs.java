@@ -0,0 +1,75 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * Class: Inputs
+ *
+ * Synthetic data shared by the benchmarks: random binary rows where each
+ * input is on with a given probability (the sparsity parameter).
+ */
+final class Inputs {
+
+    private Inputs() {
+    }
+
+    /*
+     * Method: sizes
+     *
+     * parses a comma separated layer size parameter, e.g. "784,500"
+     */
+    static int[] sizes(String spec) {
+        String[] parts = spec.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    static boolean[] row(int width, double density, Random rand) {
+        boolean[] row = new boolean[width];
+        for (int i = 0; i < width; i++) {
+            row[i] = rand.nextDouble() < density;
+        }
+        return row;
+    }
+
+    static boolean[][] rows(int count, int width, double density, long seed) {
+        Random rand = new Random(seed);
+        boolean[][] rows = new boolean[count][];
+        for (int r = 0; r < count; r++) {
+            rows[r] = row(width, density, rand);
+        }
+        return rows;
+    }
+
+    /*
+     * Method: writeCsv
+     *
+     * writes rows as a temporary comma separated 0/1 file, as ParseFile reads
+     */
+    static File writeCsv(boolean[][] rows) throws IOException {
+        File file = File.createTempFile("rbm-bench", ".csv");
+        file.deleteOnExit();
+        BufferedWriter out = new BufferedWriter(new FileWriter(file));
+        try {
+            for (boolean[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    out.write(row[i] ? '1' : '0');
+                }
+                out.write('\n');
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
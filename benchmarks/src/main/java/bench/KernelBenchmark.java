@@ -0,0 +1,104 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rbm.SimpleRBM;
+import rbm.XoroshiroSampler;
+
+/*
+ * Class: KernelBenchmark
+ *
+ * The per-input building blocks of a single SimpleRBM: sampling either
+ * layer, one legacy CD-k step, applying accumulated weight changes and the
+ * energy.  sizes is "visible,hidden"; sparsity is the fraction of inputs
+ * that are on, which sets how many weight rows the bitset kernels visit.
+ * kernels picks the SIMD or the scalar loops (see rbm.Kernels); the forks
+ * add the vector module so either can be chosen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark {
+
+    @Param({"100,50", "784,500"})
+    public String sizes;
+
+    @Param({"0.05", "0.5"})
+    public double sparsity;
+
+    @Param({"vector", "scalar"})
+    public String kernels;
+
+    private SimpleRBM rbm;
+    private boolean[] input;
+
+    @Setup
+    public void setup() {
+        System.setProperty("rbm.kernels", kernels);
+        int[] size = Inputs.sizes(sizes);
+        rbm = new SimpleRBM(size[0], size[1], new XoroshiroSampler(1));
+        input = Inputs.row(size[0], sparsity, new Random(2));
+        rbm.setAnnealingRate(1);
+        rbm.setInput(input);
+        rbm.activateHidden();
+    }
+
+    @Benchmark
+    public long[] activateHidden() {
+        rbm.activateHidden();
+        return rbm.getHiddenBits();
+    }
+
+    @Benchmark
+    public long[] activateVisible() {
+        rbm.activateVisible();
+        rbm.setInput(input);
+        return rbm.getVisibleBits();
+    }
+
+    @Benchmark
+    public float computeVisibleWeightedSum() {
+        float total = 0;
+        for (int i = 0; i < rbm.getNumVisible(); i++) {
+            total += rbm.computeVisibleWeightedSum(i);
+        }
+        return total;
+    }
+
+    /*
+     * one input's CD-5, the legacy per-input training step
+     */
+    @Benchmark
+    public long[] train() {
+        rbm.setInput(input);
+        rbm.train(5);
+        return rbm.getHiddenBits();
+    }
+
+    @Benchmark
+    public float[] updateWeights() {
+        rbm.updateWeights(1000);
+        return rbm.getFlatWeights();
+    }
+
+    @Benchmark
+    public float getEnergy() {
+        return rbm.getEnergy();
+    }
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import rbm.EpochMetrics;
+import rbm.SimpleLayeredRBM;
+import rbm.TrainingConfig;
+import rbm.TrainingListener;
+import rbm.UpdateRule;
+
+/*
+ * Class: OptimizerComparison
+ *
+ * Trains the same one-layer network with each UpdateRule and reports the
+ * training time and epochs each one needs to reach a target mean-field
+ * reconstruction error (see ConvergenceComparison), plus the error after
+ * every few epochs.  Time spent measuring the error is not counted.
+ *
+ * Usage: java -cp benchmarks.jar bench.OptimizerComparison
+ *            [inputs hidden density epochs target]
+ */
+public class OptimizerComparison {
+
+    public static void main(String[] args) {
+        int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int hidden = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        double density = args.length > 2 ? Double.parseDouble(args[2]) : 0.05;
+        int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        double target = args.length > 4 ? Double.parseDouble(args[4]) : 5.0;
+
+        boolean[][] data = ConvergenceComparison.prototypes(inputs, density);
+        System.out.printf("%d rows of %d inputs (density %.2f), %d hidden, target error %.2f%n",
+                data.length, inputs, density, hidden, target);
+        System.out.printf("%-9s %8s %12s %10s  %s%n",
+                "rule", "epochs", "ms", "final err", "error every 5 epochs");
+
+        for (UpdateRule rule : UpdateRule.values()) {
+            SimpleLayeredRBM net = new SimpleLayeredRBM(inputs, new int[] {hidden}, 7L);
+            TrainingConfig config = new TrainingConfig();
+            config.setBatchSize(10);
+            config.setSeed(1L);
+            config.setUpdateRule(rule);
+
+            StringBuilder trace = new StringBuilder();
+            long[] reached = {-1, 0};      // epochs and nanoseconds to the target
+            double[] error = {Double.NaN};
+            config.addListener(new TrainingListener() {
+                private long nanos = 0;
+
+                @Override
+                public void epochFinished(EpochMetrics metrics) {
+                    nanos += metrics.getElapsedNanos();
+                    error[0] = ConvergenceComparison.reconstructionError(net.getLayer(0), data);
+                    if (reached[0] < 0 && error[0] <= target) {
+                        reached[0] = metrics.getEpoch() + 1;
+                        reached[1] = nanos;
+                    }
+                    if ((metrics.getEpoch() + 1) % 5 == 0) {
+                        trace.append(String.format(" %7.3f", error[0]));
+                    }
+                }
+            });
+            net.layeredLearn(data, epochs, config);
+
+            System.out.printf("%-9s %8s %12s %10.4f %s%n", rule,
+                    reached[0] < 0 ? "-" : Long.toString(reached[0]),
+                    reached[0] < 0 ? "-" : String.format("%.1f", reached[1] / 1e6),
+                    error[0], trace);
+        }
+    }
+}
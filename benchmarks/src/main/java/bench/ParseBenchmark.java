@@ -0,0 +1,59 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.ParseFile;
+
+/*
+ * Class: ParseBenchmark
+ *
+ * ParseFile.getData on a 10000 row file of the given width.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final int ROWS = 10000;
+
+    @Param({"100", "784"})
+    public int width;
+
+    @Param({"0.05", "0.5"})
+    public double sparsity;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = Inputs.writeCsv(Inputs.rows(ROWS, width, sparsity, 6));
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean[][] getData() {
+        return new ParseFile(file.getPath()).getData();
+    }
+}
@@ -0,0 +1,110 @@
+package bench;
+
+import rbm.InferenceMode;
+import rbm.InferenceModel;
+import rbm.InferenceSession;
+import rbm.SimpleLayeredRBM;
+import rbm.TrainingConfig;
+import rbm.WeightPrecision;
+
+/*
+ * Class: QuantizationComparison
+ *
+ * Freezes one trained network at every WeightPrecision and compares each
+ * model with the FLOAT32 one: the memory its weights take, the largest
+ * weight error in the first layer, and how far its mean-field results move.
+ * "features" is one pass up from the input (the first layer's hidden
+ * probabilities), shown with the bound WeightPrecision documents for it;
+ * "predict" is the input probabilities after a full cycle up the stack and
+ * back.  The last column is the time per predict.
+ *
+ * Usage: java --add-modules jdk.incubator.vector -cp benchmarks.jar
+ *            bench.QuantizationComparison [inputs hidden density epochs]
+ */
+public class QuantizationComparison {
+
+    private static final int CYCLES = 1;
+    private static final int TIMED_PASSES = 20;
+
+    public static void main(String[] args) {
+        int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 784;
+        int hidden = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        double density = args.length > 2 ? Double.parseDouble(args[2]) : 0.1;
+        int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        boolean[][] data = ConvergenceComparison.prototypes(inputs, density);
+        SimpleLayeredRBM net = new SimpleLayeredRBM(inputs, new int[] {hidden, hidden / 2}, 7L);
+        TrainingConfig config = new TrainingConfig();
+        config.setBatchSize(10);
+        config.setSeed(1L);
+        net.layeredLearn(data, epochs, config);
+
+        System.out.printf("%d rows of %d inputs (density %.2f), layers %d and %d, %d epochs%n",
+                data.length, inputs, density, hidden, hidden / 2, epochs);
+        System.out.printf("%-8s %9s %10s  %10s %10s  %10s %10s  %9s%n", "weights", "KB",
+                "max w err", "features", "bound", "predict", "mean", "us/row");
+
+        InferenceModel reference = InferenceModel.of(net);
+        float[][] predictions = new float[data.length][];
+        for (WeightPrecision precision : WeightPrecision.values()) {
+            InferenceModel model = InferenceModel.of(net, precision);
+            InferenceSession session = model.newSession(1L);
+            session.setMode(InferenceMode.MEAN_FIELD);
+            InferenceSession exact = reference.newSession(1L);
+            exact.setMode(InferenceMode.MEAN_FIELD);
+
+            // one pass up: the error, and the bound of WeightPrecision for it
+            double featureDiff = 0;
+            double bound = 0;
+            float error = model.getMaxWeightError(0);
+            float annealing = model.getAnnealingRate(0);
+            for (int r = 0; r < data.length; r++) {
+                float[] got = session.features(data[r]);
+                float[] want = exact.features(data[r]);
+                featureDiff = Math.max(featureDiff, maxDiff(got, want));
+                int active = 1;   // the bias
+                for (boolean on : data[r]) {
+                    active += on ? 1 : 0;
+                }
+                bound = Math.max(bound, active * error / (4 * annealing));
+            }
+
+            double predictDiff = 0;
+            double predictSum = 0;
+            long count = 0;
+            for (int r = 0; r < data.length; r++) {
+                float[] got = session.predict(data[r], CYCLES);
+                float[] want = exact.predict(data[r], CYCLES);
+                predictDiff = Math.max(predictDiff, maxDiff(got, want));
+                for (int i = 0; i < got.length; i++) {
+                    predictSum += Math.abs(got[i] - want[i]);
+                }
+                count += got.length;
+            }
+
+            // warm up, then time
+            for (int r = 0; r < data.length; r++) {
+                predictions[r] = session.predict(data[r], CYCLES);
+            }
+            long start = System.nanoTime();
+            for (int pass = 0; pass < TIMED_PASSES; pass++) {
+                for (int r = 0; r < data.length; r++) {
+                    predictions[r] = session.predict(data[r], CYCLES);
+                }
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / TIMED_PASSES / data.length;
+
+            System.out.printf("%-8s %9.1f %10.2e  %10.2e %10.2e  %10.2e %10.2e  %9.2f%n",
+                    precision, model.getWeightBytes() / 1024.0, error, featureDiff, bound,
+                    predictDiff, predictSum / count, micros);
+        }
+    }
+
+    private static double maxDiff(float[] a, float[] b) {
+        double max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rbm.ChainSampler;
+import rbm.InferenceModel;
+import rbm.InferenceSession;
+import rbm.SimpleLayeredRBM;
+
+/*
+ * Class: SamplingBenchmark
+ *
+ * 64 Gibbs chains of 10 cycles each through a two-layer stack, keeping the
+ * last state of every chain: once as 64 calls to InferenceSession.generate,
+ * the way a single-chain caller would, and once as one ChainSampler run
+ * with a burn-in of 9.  sizes is "inputs,hidden" (the second layer has half
+ * as many hidden units); at "2000,4000" each layer's weights are far bigger
+ * than the cache.  kernels is the SIMD or the scalar inner loops, as in
+ * KernelBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SamplingBenchmark {
+
+    private static final int CHAINS = 64;
+    private static final int CYCLES = 10;
+
+    @Param({"100,50", "784,500", "2000,4000"})
+    public String sizes;
+
+    @Param({"vector", "scalar"})
+    public String kernels;
+
+    private boolean[] seed;
+    private InferenceSession session;
+    private ChainSampler sampler;
+
+    @Setup
+    public void setup() {
+        System.setProperty("rbm.kernels", kernels);
+        int[] size = Inputs.sizes(sizes);
+        InferenceModel model = new SimpleLayeredRBM(size[0],
+                new int[] {size[1], size[1] / 2}, 7L).freeze();
+        seed = Inputs.row(size[0], 0.1, new Random(2));
+        session = model.newSession(1L);
+        sampler = new ChainSampler(model, CHAINS, 1);
+        sampler.setSeed(1L);
+        sampler.setBurnIn(CYCLES - 1);
+    }
+
+    @Benchmark
+    public boolean[] sessions() {
+        boolean[] last = null;
+        for (int c = 0; c < CHAINS; c++) {
+            session.setSeed(c);
+            last = session.generate(seed, CYCLES);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public long[][] chainSampler() {
+        return sampler.sample(seed, 1);
+    }
+}
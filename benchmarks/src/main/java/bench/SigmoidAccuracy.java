@@ -0,0 +1,64 @@
+package bench;
+
+import rbm.Sigmoid;
+
+/*
+ * Class: SigmoidAccuracy
+ *
+ * Measures the maximum absolute error of every Sigmoid against the
+ * double-precision logistic function over [-64, 64], at a spacing of 1e-4
+ * and at every multiple of 2^-12, and checks it against the bound the enum
+ * documents.  Exits with status 1 if any bound is exceeded.
+ *
+ * Usage: java -cp benchmarks.jar bench.SigmoidAccuracy
+ */
+public class SigmoidAccuracy {
+
+    private static final double RANGE = 64;
+
+    public static void main(String[] args) {
+        boolean ok = true;
+        System.out.printf("%-9s %10s %12s %10s%n", "sigmoid", "max error", "at", "bound");
+        for (Sigmoid sigmoid : Sigmoid.values()) {
+            double bound = bound(sigmoid);
+            double[] worst = {0, 0};
+            long steps = (long) (RANGE / 1e-4);
+            for (long k = -steps; k <= steps; k++) {
+                measure(sigmoid, (float) (k * 1e-4), worst);
+            }
+            steps = (long) (RANGE * 4096);
+            for (long k = -steps; k <= steps; k++) {
+                measure(sigmoid, k / 4096f, worst);
+            }
+            boolean within = worst[0] < bound;
+            ok &= within;
+            System.out.printf("%-9s %10.3g %12.5f %10.0e%s%n", sigmoid, worst[0], worst[1],
+                    bound, within ? "" : "  EXCEEDED");
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    // the bounds documented in Sigmoid
+    static double bound(Sigmoid sigmoid) {
+        switch (sigmoid) {
+        case EXACT:
+            return 1e-7;
+        case TABLE:
+            return 1e-6;
+        case RATIONAL:
+            return 5e-5;
+        default:
+            throw new IllegalArgumentException("no documented bound for " + sigmoid);
+        }
+    }
+
+    private static void measure(Sigmoid sigmoid, float x, double[] worst) {
+        double error = Math.abs(sigmoid.apply(x) - 1 / (1 + Math.exp(-(double) x)));
+        if (error > worst[0]) {
+            worst[0] = error;
+            worst[1] = x;
+        }
+    }
+}
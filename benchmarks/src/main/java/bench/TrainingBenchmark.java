@@ -0,0 +1,85 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rbm.SimpleLayeredRBM;
+import rbm.TrainingConfig;
+
+/*
+ * Class: TrainingBenchmark
+ *
+ * One full layeredLearn epoch (every layer trained for one pass over the
+ * inputs) with mini-batches of 10 and CD-5.  sizes is "inputs,hidden,...";
+ * mode is the synchronous mini-batch trainer or the lock-free asynchronous
+ * one; kernels is the SIMD or the scalar inner loops, as in KernelBenchmark.
+ * The network is rebuilt before every iteration so each measures
+ * training from the same starting weights.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TrainingBenchmark {
+
+    private static final int ROWS = 500;
+
+    @Param({"100,50,25", "400,200,100"})
+    public String sizes;
+
+    @Param({"0.05", "0.5"})
+    public double sparsity;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"sync", "async"})
+    public String mode;
+
+    @Param({"vector", "scalar"})
+    public String kernels;
+
+    private boolean[][] data;
+    private TrainingConfig config;
+    private SimpleLayeredRBM net;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        System.setProperty("rbm.kernels", kernels);
+        int[] size = Inputs.sizes(sizes);
+        data = Inputs.rows(ROWS, size[0], sparsity, 3);
+        config = new TrainingConfig();
+        config.setBatchSize(10);
+        config.setThreads(threads);
+        config.setSeed(4L);
+        config.setAsynchronous(mode.equals("async"));
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        int[] size = Inputs.sizes(sizes);
+        int[] hidden = new int[size.length - 1];
+        System.arraycopy(size, 1, hidden, 0, hidden.length);
+        net = new SimpleLayeredRBM(size[0], hidden, 5L);
+    }
+
+    @Benchmark
+    public SimpleLayeredRBM layeredLearnEpoch() {
+        net.layeredLearn(data, 1, config);
+        return net;
+    }
+}
@@ -0,0 +1,26 @@
+package main;
+
+import parse.PackedDataset;
+
+public class ConvertData {
+
+	/**
+	 * Converts a comma separated training or test file into the packed
+	 * binary format read by PackedDataset.
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if(args.length != 2){
+			System.out.println("Usage:\n\tCSV input name\n\tPacked output name");
+			System.exit(0);
+		}
+
+		try{
+			long rows = PackedDataset.convert(args[0], args[1]);
+			System.out.println("Wrote " + rows + " rows to " + args[1]);
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+	} // end of main method
+
+} // end of class ConvertData
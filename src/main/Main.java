@@ -1,10 +1,18 @@
 package main;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import parse.PackedDataset;
 import parse.ParseFile;
+import rbm.ModelFile;
+import rbm.ProgressPrinter;
 import rbm.SimpleLayeredRBM;
-import java.io.ObjectOutputStream;
-import java.io.FileOutputStream;
-import java.io.File;
+import rbm.SparseDataSource;
+import rbm.TrainingConfig;
+import rbm.UpdateRule;
 
 public class Main {
 
@@ -12,30 +20,87 @@ public class Main {
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		if(args.length != 5){
-			System.out.println("Usage:\n\tTraining set name\n\tTest set name\n\tLayer File Name\n\tPrediction output name\n\tserialized file name");
-			System.exit(0);
+		// options start with "--" and may come anywhere among the file names
+		TrainingConfig config = new TrainingConfig();
+		List<String> names = new ArrayList<String>();
+		try{
+			for(String arg : args){
+				if(!arg.startsWith("--")){
+					names.add(arg);
+				}else if(arg.startsWith("--patience=")){
+					// a layer stops once its reconstruction error levels off
+					config.setPatience(Integer.parseInt(arg.substring("--patience=".length())));
+				}else if(arg.startsWith("--update-rule=")){
+					String rule = arg.substring("--update-rule=".length());
+					config.setUpdateRule(UpdateRule.valueOf(rule.toUpperCase()));
+				}else if(arg.equals("--visible-biases-from-data")){
+					// keeps reconstructions of sparse rows sparse
+					config.setVisibleBiasesFromData(true);
+				}else{
+					usage("unknown option " + arg);
+				}
+			}
+		}catch(IllegalArgumentException e){
+			usage("bad option value: " + e.getMessage());
+		}
+		if(names.size() != 5){
+			usage(null);
 		}
 		
-		String trainingName = args[0]; 
-		String testName = args[1];
-		String layerFileName = args[2];
-		String predictOutName = args[3];
-		String serialName = args[4];
+		String trainingName = names.get(0); 
+		String testName = names.get(1);
+		String layerFileName = names.get(2);
+		String predictOutName = names.get(3);
+		String serialName = names.get(4);
 		
 		System.out.println("Training on " + trainingName);
 		ParseFile trainParse = new ParseFile(trainingName);
-		
-		boolean[][] trainingData = trainParse.getData();
 		int sizes[] = trainParse.getSizes(layerFileName);
-		SimpleLayeredRBM slrbm = new SimpleLayeredRBM(trainingData[0].length, sizes);
-		
-		slrbm.train(trainingData, 100);
+		SimpleLayeredRBM slrbm;
+		config.addListener(new ProgressPrinter(System.out, 10));
+		// a run that dies carries on from its last checkpoint next time
+		File checkpoint = new File(serialName + ".ckpt");
+		config.setCheckpointFile(checkpoint);
+		config.setCheckpointEpochs(10);
+		config.setCheckpointSeconds(600);
+
+		if(trainingName.endsWith(".rbmd")){
+			// packed files (see ConvertData) are streamed rather than loaded
+			try{
+				PackedDataset trainingData = PackedDataset.open(trainingName);
+				if(resumable(checkpoint, trainingData.width(), sizes)){
+					System.out.println("Resuming from " + checkpoint);
+					slrbm = SimpleLayeredRBM.resume(checkpoint.getPath(), trainingData, config);
+				}else{
+					slrbm = new SimpleLayeredRBM(trainingData.width(), sizes);
+					slrbm.train(trainingData, 100, config);
+				}
+				trainingData.close();
+			}catch(Exception e){
+				e.printStackTrace();
+				return;
+			}
+		}else{
+			// kept as the indices of the set columns; rows are mostly empty
+			SparseDataSource trainingData = trainParse.getSparseData();
+			try{
+				if(resumable(checkpoint, trainingData.width(), sizes)){
+					System.out.println("Resuming from " + checkpoint);
+					slrbm = SimpleLayeredRBM.resume(checkpoint.getPath(), trainingData, config);
+				}else{
+					slrbm = new SimpleLayeredRBM(trainingData.width(), sizes);
+					slrbm.train(trainingData, 100, config);
+				}
+			}catch(Exception e){
+				e.printStackTrace();
+				return;
+			}
+		}
 		System.out.println("Done training!  Now to serialize the file:" + serialName);
 		try{
-			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(serialName)));
-			out.writeObject(slrbm);
-			out.close();
+			// binary model format; read it back with ModelFile.load
+			ModelFile.save(slrbm, serialName, false);
+			checkpoint.delete();
 		}catch(Exception e){
 			e.printStackTrace();
 		}
@@ -53,4 +118,42 @@ public class Main {
 		
 	} // end of main method
 
+	/*
+	 * whether there is a checkpoint to carry on from.  One left by a network
+	 * of other sizes is reported rather than carried on, and left in place.
+	 */
+	private static boolean resumable(File checkpoint, int width, int[] sizes) throws IOException {
+		if(!checkpoint.exists()){
+			return false;
+		}
+		ModelFile file = ModelFile.open(checkpoint.getPath());
+		try{
+			// the sizes count the bias units, the layer file does not
+			boolean same = file.getNumLayers() == sizes.length
+					&& file.getNumVisible(0) == width + 1;
+			for(int l = 0; same && l < sizes.length; l++){
+				same = file.getNumHidden(l) == sizes[l] + 1;
+			}
+			if(!same){
+				throw new IOException(checkpoint + " is from a network of other layer sizes;"
+						+ " delete it to start this one afresh");
+			}
+		}finally{
+			file.close();
+		}
+		return true;
+	}
+
+	private static void usage(String problem) {
+		if(problem != null){
+			System.out.println(problem);
+		}
+		System.out.println("Usage:\n\tTraining set name\n\tTest set name\n\tLayer File Name\n\tPrediction output name\n\tserialized file name");
+		System.out.println("Options:");
+		System.out.println("\t--patience=N\tstop a layer once N checks in a row show no improvement");
+		System.out.println("\t--update-rule=sgd|momentum|adam\thow the weights are updated (default sgd)");
+		System.out.println("\t--visible-biases-from-data\tstart the input biases at each input's frequency");
+		System.exit(0);
+	}
+
 } // end of class main
@@ -0,0 +1,75 @@
+package parse;
+
+import java.io.IOException;
+
+import rbm.DataSource;
+
+/**
+ * A DataSource that re-reads a comma separated 0/1 file with a RowReader on
+ * every pass, so the file is never held in memory.  Every row must have the
+ * same width; the width and row count come from a scan of the file when the
+ * source is created.  For repeated training, converting the file with
+ * PackedDataset.convert is much faster.
+ */
+public class CsvDataSource implements DataSource {
+
+	private final String filename;
+	private final int width;
+	private final long size;
+
+	public CsvDataSource(String filename) throws IOException {
+		this.filename = filename;
+
+		int rowWidth = -1;
+		long rows = 0;
+		RowReader reader = new RowReader(filename);
+		try{
+			while(reader.hasNext()){
+				reader.next();
+				if(rowWidth < 0){
+					rowWidth = reader.width();
+				}else if(reader.width() != rowWidth){
+					throw new IOException(filename + ": row " + (rows + 1) + " has "
+							+ reader.width() + " columns, expected " + rowWidth);
+				}
+				rows += 1;
+			}
+		}finally{
+			reader.close();
+		}
+		this.width = Math.max(rowWidth, 0);
+		this.size = rows;
+	}
+
+	@Override
+	public int width(){
+		return width;
+	}
+
+	@Override
+	public long size(){
+		return size;
+	}
+
+	@Override
+	public Cursor open() throws IOException {
+		final RowReader reader = new RowReader(filename);
+		return new Cursor(){
+			@Override
+			public boolean next(long[] row){
+				if(!reader.hasNext()){
+					return false;
+				}
+				long[] next = reader.next();
+				System.arraycopy(next, 0, row, 0, next.length);
+				return true;
+			}
+
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+
+} // end of class CsvDataSource
@@ -0,0 +1,246 @@
+package parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import rbm.IndexedDataSource;
+
+/**
+ * A data set of fixed-width binary rows stored bit-packed on disk and read
+ * through memory maps.
+ *
+ * File layout, all little-endian:
+ *
+ *   offset  0  int    magic "RBMD"
+ *   offset  4  int    format version (1)
+ *   offset  8  int    width, the number of columns per row
+ *   offset 12  int    reserved, 0
+ *   offset 16  long   number of rows
+ *   offset 24  long   reserved, 0
+ *   offset 32         rows, each ceil(width / 64) longs, with column i in
+ *                     bit (i & 63) of long (i >>> 6), the same layout as
+ *                     RowReader produces
+ *
+ * Opening a file maps it read-only, so rows are read straight from the page
+ * cache and nothing is parsed at startup.  The file is mapped in regions of
+ * whole rows so data sets larger than 2GB work.
+ *
+ * As a DataSource each pass reads the rows in file order, which lets the
+ * operating system read ahead; training streams such files when they are
+ * larger than the shuffle window, so only the pages in use stay resident.
+ */
+public class PackedDataset implements IndexedDataSource, Closeable {
+
+	public static final int MAGIC = 0x444d4252;   // "RBMD" read little-endian
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+
+	// largest region mapped at once; rounded down to whole rows
+	private static final long MAX_REGION = 1L << 30;
+
+	private final FileChannel channel;
+	private final int width;
+	private final int words;
+	private final int numRows;
+	private final int rowsPerRegion;
+	private final LongBuffer[] regions;
+
+	private PackedDataset(FileChannel channel, int width, int numRows) throws IOException {
+		this.channel = channel;
+		this.width = width;
+		this.words = (width + 63) >>> 6;
+		this.numRows = numRows;
+
+		long rowBytes = 8L * words;
+		this.rowsPerRegion = (int) Math.max(1, MAX_REGION / Math.max(1, rowBytes));
+		int numRegions = numRows == 0 ? 0 : (numRows - 1) / rowsPerRegion + 1;
+		this.regions = new LongBuffer[numRegions];
+		for(int r = 0; r < numRegions; r++){
+			long first = (long) r * rowsPerRegion;
+			long count = Math.min(rowsPerRegion, numRows - first);
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+					HEADER_SIZE + first * rowBytes, count * rowBytes);
+			regions[r] = map.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		}
+	}
+
+
+	/**
+	 *
+	 * @param filename - a file written by PackedDatasetWriter or convert()
+	 * @return the data set, mapped into memory
+	 */
+	public static PackedDataset open(String filename) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining()){
+				if(channel.read(header, header.position()) < 0){
+					throw new IOException(filename + " is too short to be a packed data set");
+				}
+			}
+			header.flip();
+
+			if(header.getInt(0) != MAGIC){
+				throw new IOException(filename + " is not a packed data set");
+			}
+			if(header.getInt(4) != VERSION){
+				throw new IOException(filename + " has unsupported version " + header.getInt(4));
+			}
+			int width = header.getInt(8);
+			long rows = header.getLong(16);
+			if(width < 0 || rows < 0 || rows > Integer.MAX_VALUE){
+				throw new IOException(filename + " has a corrupt header");
+			}
+			long expected = HEADER_SIZE + rows * 8L * ((width + 63) >>> 6);
+			if(channel.size() < expected){
+				throw new IOException(filename + " is truncated");
+			}
+			return new PackedDataset(channel, width, (int) rows);
+		}catch(IOException e){
+			channel.close();
+			throw e;
+		}
+	} // end of method open
+
+
+	/**
+	 * Converts a comma separated 0/1 file (as read by ParseFile) into the
+	 * packed format in one streaming pass.  Every row must have the same
+	 * width.
+	 *
+	 * @param csvFilename - the text file to read
+	 * @param packedFilename - the file to create or overwrite
+	 * @return the number of rows written
+	 */
+	public static long convert(String csvFilename, String packedFilename) throws IOException {
+		RowReader reader = new RowReader(csvFilename);
+		try{
+			if(!reader.hasNext()){
+				PackedDatasetWriter.create(packedFilename, 0).close();
+				return 0;
+			}
+			long[] row = reader.next();
+			PackedDatasetWriter writer = PackedDatasetWriter.create(packedFilename, reader.width());
+			try{
+				while(true){
+					if(reader.width() != writer.width()){
+						throw new IOException(csvFilename + ": row " + (writer.rows() + 1)
+								+ " has " + reader.width() + " columns, expected " + writer.width());
+					}
+					writer.write(row);
+					if(!reader.hasNext()){
+						break;
+					}
+					row = reader.next();
+				}
+			}finally{
+				writer.close();
+			}
+			return writer.rows();
+		}finally{
+			reader.close();
+		}
+	} // end of method convert
+
+
+	/**
+	 *
+	 * @return the number of columns in each row
+	 */
+	@Override
+	public int width(){
+		return width;
+	}
+
+	/**
+	 *
+	 * @return the number of rows
+	 */
+	public int rows(){
+		return numRows;
+	}
+
+	@Override
+	public long size(){
+		return numRows;
+	}
+
+	/**
+	 *
+	 * @return the number of longs in each packed row
+	 */
+	public int words(){
+		return words;
+	}
+
+
+	/**
+	 * Copies one packed row out of the mapping.  Safe to call from several
+	 * threads at once.
+	 *
+	 * @param index - the row to read
+	 * @param dst - receives the row's words(); may be longer
+	 */
+	@Override
+	public void row(int index, long[] dst){
+		LongBuffer region = regions[index / rowsPerRegion];
+		region.get((index % rowsPerRegion) * words, dst, 0, words);
+	}
+
+
+	/**
+	 *
+	 * @param index - the row to read
+	 * @param column - the column within that row
+	 * @return the value at that position
+	 */
+	public boolean get(int index, int column){
+		LongBuffer region = regions[index / rowsPerRegion];
+		long word = region.get((index % rowsPerRegion) * words + (column >>> 6));
+		return (word & (1L << column)) != 0;
+	}
+
+
+	/**
+	 *
+	 * @return a cursor over the rows in file order
+	 */
+	@Override
+	public Cursor open(){
+		return new Cursor(){
+			private int next = 0;
+
+			@Override
+			public boolean next(long[] row){
+				if(next == numRows){
+					return false;
+				}
+				row(next++, row);
+				return true;
+			}
+
+			@Override
+			public void close(){
+			}
+		};
+	}
+
+
+	/**
+	 * Releases the file.  The mapping itself is freed by the garbage
+	 * collector once no rows are being read.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+} // end of class PackedDataset
@@ -0,0 +1,110 @@
+package parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes packed rows to a file in the PackedDataset format.  The row count
+ * in the header is filled in by close().
+ */
+public class PackedDatasetWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final int width;
+	private final int words;
+	private long rows;
+
+	private PackedDatasetWriter(FileChannel channel, int width){
+		this.channel = channel;
+		this.width = width;
+		this.words = (width + 63) >>> 6;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, 8 * words))
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+
+	/**
+	 *
+	 * @param filename - the file to create or overwrite
+	 * @param width - the number of columns in every row
+	 * @return a writer positioned after the header
+	 */
+	public static PackedDatasetWriter create(String filename, int width) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		PackedDatasetWriter writer = new PackedDatasetWriter(channel, width);
+		writer.writeHeader();
+		return writer;
+	}
+
+
+	/**
+	 *
+	 * @param row - a packed row of at least words() longs; bits at or beyond
+	 *              width() are written as they are
+	 */
+	public void write(long[] row) throws IOException {
+		if(buffer.remaining() < 8 * words){
+			flush();
+		}
+		for(int w = 0; w < words; w++){
+			buffer.putLong(w < row.length ? row[w] : 0);
+		}
+		rows += 1;
+	}
+
+	public int width(){
+		return width;
+	}
+
+	public long rows(){
+		return rows;
+	}
+
+
+	@Override
+	public void close() throws IOException {
+		try{
+			flush();
+			writeHeader();
+		}finally{
+			channel.close();
+		}
+	}
+
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(PackedDataset.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(PackedDataset.MAGIC);
+		header.putInt(PackedDataset.VERSION);
+		header.putInt(width);
+		header.putInt(0);
+		header.putLong(rows);
+		header.putLong(0);
+		header.flip();
+		long position = 0;
+		while(header.hasRemaining()){
+			position += channel.write(header, position);
+		}
+		if(channel.position() < PackedDataset.HEADER_SIZE){
+			channel.position(PackedDataset.HEADER_SIZE);
+		}
+	}
+
+} // end of class PackedDatasetWriter
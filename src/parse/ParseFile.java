@@ -2,112 +2,215 @@ package parse;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rbm.SparseDataSource;
 
 public class ParseFile {
 	private String filename;
-	private Pattern pattern;
-	
+	private int width;        // widest row seen by the last full read
+	private int[] rowWidths;  // width of each row from the last full read
+
 	public ParseFile(String filename){
 		this.filename = filename;
-		this.pattern = Pattern.compile(",\\s*");
 	}
-	
-	
+
+
 	/**
 	 * Returns the data for task2.
-	 * @return 
+	 * @return
 	 */
 	public boolean[][] getData(){
-		boolean[][] data = new boolean[countLines()][];
-		String currentLine;
-		int lineNumber;
-		
+		long[][] packed = getPackedData();
+		boolean[][] data = new boolean[packed.length][];
+
+		for(int lineNumber = 0; lineNumber < packed.length; lineNumber++){
+			int rowWidth = rowWidths[lineNumber];
+			data[lineNumber] = new boolean[rowWidth];
+			for(int i = 0; i < rowWidth; i++ ){
+				data[lineNumber][i] = (packed[lineNumber][i >>> 6] & (1L << i)) != 0;
+			}
+		}
+		return data;
+	} // end of method getData
+
+
+	/**
+	 * Reads the whole file in one pass, straight into packed bit rows (see
+	 * RowReader for the layout).  Afterwards getWidth() returns the width of
+	 * the widest row.
+	 * @return one packed row per non-blank line
+	 */
+	public long[][] getPackedData(){
+		List<long[]> rows = new ArrayList<long[]>();
+		int[] widths = new int[16];
+		this.width = 0;
+
 		try{
-			BufferedReader br = new BufferedReader(new FileReader(new File(this.filename)));
-			currentLine = br.readLine();
-			lineNumber = 0;
-			String[] split;
-			
-			
-			while(currentLine != null){
-				split = this.pattern.split(currentLine);
-				data[lineNumber] = new boolean[split.length];
-				
-				for(int i = 0; i < split.length; i++ ){
-					data[lineNumber][i] = split[i].equals(1);
+			RowReader reader = rows();
+			try{
+				while(reader.hasNext()){
+					rows.add(reader.next());
+					if(rows.size() > widths.length){
+						widths = Arrays.copyOf(widths, widths.length * 2);
+					}
+					widths[rows.size() - 1] = reader.width();
+					this.width = Math.max(this.width, reader.width());
 				}
-				
-				lineNumber += 1;
-				currentLine = br.readLine();
+			}finally{
+				reader.close();
 			}
-			
 		}catch(Exception e){
 			e.printStackTrace();
 		}
-		
-		
-		return data;
-	} // end of method getData
-	
-	
+
+		this.rowWidths = widths;
+		return rows.toArray(new long[rows.size()][]);
+	} // end of method getPackedData
+
+
 	/**
-	 * 
+	 * Reads the whole file in one pass into compressed sparse rows, keeping
+	 * only the indices of the set columns, so wide and mostly empty rows are
+	 * never expanded.  Afterwards getWidth() returns the width of the widest
+	 * row, which is also the width of the returned source.
+	 * @return one row per non-blank line
+	 */
+	public SparseDataSource getSparseData(){
+		int[] rowStart = new int[17];
+		int[] columns = new int[1024];
+		int numRows = 0;
+		this.width = 0;
+
+		try{
+			RowReader reader = rows();
+			try{
+				while(reader.hasNext()){
+					long[] packed = reader.next();
+					int n = rowStart[numRows];
+					for(int w = 0; w < packed.length; w++){
+						long word = packed[w];
+						while(word != 0){
+							if(n == columns.length){
+								columns = Arrays.copyOf(columns, columns.length * 2);
+							}
+							columns[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+							word &= word - 1;
+						}
+					}
+					numRows += 1;
+					if(numRows + 1 > rowStart.length){
+						rowStart = Arrays.copyOf(rowStart, rowStart.length * 2);
+					}
+					rowStart[numRows] = n;
+					this.width = Math.max(this.width, reader.width());
+				}
+			}finally{
+				reader.close();
+			}
+		}catch(Exception e){
+			e.printStackTrace();
+		}
+
+		return new SparseDataSource(Arrays.copyOf(rowStart, numRows + 1),
+				Arrays.copyOf(columns, rowStart[numRows]), this.width);
+	} // end of method getSparseData
+
+
+	/**
+	 * Opens the file for streaming, one packed row at a time, without holding
+	 * the whole data set in memory.  The caller must close the reader.
+	 * @return a reader positioned at the first row
+	 */
+	public RowReader rows() throws IOException {
+		return new RowReader(this.filename);
+	} // end of method rows
+
+
+	/**
+	 *
+	 * @return the width of the widest row read by the last call to
+	 * getData(), getPackedData() or getSparseData()
+	 */
+	public int getWidth(){
+		return this.width;
+	}
+
+
+	/**
+	 *
 	 * @param filename
 	 * @return array of layer sizes
 	 */
 	public int[] getSizes(String filename){
 		int lines = 0;
-		
-	    int[] sizes = null;
+
+	    int[] sizes = new int[8];
 		try{
-			// get line count
+			// read and parse in one pass, growing the array as needed
 	    	BufferedReader br = new BufferedReader(new FileReader(new File(filename)));
-	    	while(br.readLine() != null){
+	    	String line;
+	    	while((line = br.readLine()) != null){
+	    		line = line.trim();
+	    		if(line.isEmpty()){
+	    			continue;
+	    		}
+	    		if(lines == sizes.length){
+	    			sizes = Arrays.copyOf(sizes, sizes.length * 2);
+	    		}
+	    		sizes[lines] = Integer.parseInt(line);
 	    		lines += 1;
 	    	}
 	    	br.close();
-	    	
-	    	// make an array of the appropriate size, populate it
-	    	sizes = new int[lines];
-	    	br = new BufferedReader(new FileReader(new File(filename)));
-	    	for(int i = 0; i < lines; i++){
-	    		sizes[i] = Integer.parseInt(br.readLine());
-	    		
-	    	}
-	    	
-	    	
-	    	
+
 	    }catch(Exception e){
 	    	e.printStackTrace();
 	    }
-	    
-	    
-		return sizes;
+
+
+		return Arrays.copyOf(sizes, lines);
 	} // end of method getSizes
-	
-	
+
+
 	/**
-	 * 
+	 *
 	 * @return the number of lines in the file passed to the constructor.
 	 * Doesn't yet check to see if the last line is empty.
 	 */
 	public int countLines(){
 		int lines = 0;
-		
+
 		try{
-			BufferedReader br = new BufferedReader(new FileReader(new File(this.filename)));
-			while(br.readLine() != null){
+			InputStream in = new FileInputStream(this.filename);
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			boolean pending = false;
+			while((read = in.read(buffer)) > 0){
+				for(int i = 0; i < read; i++){
+					if(buffer[i] == '\n'){
+						lines += 1;
+						pending = false;
+					}else{
+						pending = true;
+					}
+				}
+			}
+			if(pending){
 				lines += 1;
 			}
-			
-			br.close();
+
+			in.close();
 		}catch(Exception e){
 			e.printStackTrace();
 		}
 		return lines;
 	} // end of method countLines
-	
-	
+
+
 } // end of class ParseFile
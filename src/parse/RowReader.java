@@ -0,0 +1,153 @@
+package parse;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the rows of a comma separated file of 0/1 values as packed bit
+ * rows, in a single pass over the raw bytes and without creating Strings.
+ * Column i of a row is bit (i & 63) of word (i >>> 6).  A field is set when
+ * it is exactly "1" (surrounding whitespace is ignored); anything else is
+ * clear.  Blank lines are skipped.
+ *
+ * Each call to next() returns a new array sized for that row; width() gives
+ * the number of fields in the row most recently returned.
+ */
+public class RowReader implements Iterator<long[]>, Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// field states
+	private static final int EMPTY = 0;
+	private static final int ONE = 1;
+	private static final int OTHER = 2;
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private int limit;
+
+	private long[] row = new long[16];
+	private long[] next;
+	private int nextWidth;
+	private int width;
+	private boolean eof;
+
+	public RowReader(String filename) throws IOException {
+		this(new FileInputStream(filename));
+	}
+
+	public RowReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return the number of fields in the row last returned by next()
+	 */
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !eof) {
+			try {
+				next = readRow();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public long[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		long[] result = next;
+		width = nextWidth;
+		next = null;
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+
+	/**
+	 * Reads one non-blank line, or returns null at the end of the input.
+	 */
+	private long[] readRow() throws IOException {
+		int column = 0;
+		int field = EMPTY;
+		boolean blank = true;
+
+		while (true) {
+			if (position == limit) {
+				limit = in.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					eof = true;
+					break;
+				}
+			}
+
+			byte b = buffer[position++];
+			switch (b) {
+			case ',':
+				setColumn(column++, field == ONE);
+				field = EMPTY;
+				blank = false;
+				break;
+			case '\n':
+				if (!blank) {
+					return finishRow(column, field);
+				}
+				break;
+			case ' ':
+			case '\t':
+			case '\r':
+				break;
+			case '1':
+				field = (field == EMPTY) ? ONE : OTHER;
+				blank = false;
+				break;
+			default:
+				field = OTHER;
+				blank = false;
+			}
+		}
+
+		return blank ? null : finishRow(column, field);
+	}
+
+	private long[] finishRow(int column, int field) {
+		setColumn(column++, field == ONE);
+		nextWidth = column;
+		int words = (column + 63) >>> 6;
+		long[] packed = Arrays.copyOf(row, words);
+		Arrays.fill(row, 0, words, 0);
+		return packed;
+	}
+
+	private void setColumn(int column, boolean value) {
+		int word = column >>> 6;
+		if (word >= row.length) {
+			row = Arrays.copyOf(row, Math.max(row.length * 2, word + 1));
+		}
+		if (value) {
+			row[word] |= 1L << column;
+		}
+	}
+
+} // end of class RowReader
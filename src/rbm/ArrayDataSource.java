@@ -0,0 +1,70 @@
+package rbm;
+
+/*
+ * Class: ArrayDataSource
+ *
+ * An IndexedDataSource over packed rows already in memory.
+ */
+public class ArrayDataSource implements IndexedDataSource {
+
+    private final long[][] rows;
+    private final int width;
+
+    /**
+     * @param rows - packed rows of at least Bits.words(width) longs each; the
+     *               arrays are used as they are, not copied
+     * @param width - the number of columns in each row
+     */
+    public ArrayDataSource(long[][] rows, int width) {
+        this.rows = rows;
+        this.width = width;
+    }
+
+    /**
+     * @param rows - unpacked rows; each is cut or zero-padded to width
+     * @param width - the number of columns in each row
+     * @return - a source holding packed copies of the rows
+     */
+    public static ArrayDataSource pack(boolean[][] rows, int width) {
+        long[][] packed = new long[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            packed[i] = Bits.pack(rows[i], width);
+        }
+        return new ArrayDataSource(packed, width);
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public long size() {
+        return rows.length;
+    }
+
+    @Override
+    public void row(int index, long[] row) {
+        System.arraycopy(rows[index], 0, row, 0, Bits.words(width));
+    }
+
+    @Override
+    public Cursor open() {
+        return new Cursor() {
+            private int next = 0;
+
+            @Override
+            public boolean next(long[] row) {
+                if (next == rows.length) {
+                    return false;
+                }
+                row(next++, row);
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,291 @@
+package rbm;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Class: AsyncTrainer
+ *
+ * Lock-free ("Hogwild") layer-wise training.  Every epoch the shuffled inputs
+ * are cut into one shard per thread.  Each thread runs CD-k on its inputs one
+ * at a time and, once an input's chain has run, adds its positive and
+ * negative outer products straight into the layer's shared weights with
+ * plain writes, so there is no accumulator, no reduction and no barrier
+ * until the end of the epoch.  The chain runs on the weights as they were
+ * before the input's own update, as in the synchronous trainer.
+ *
+ * Only the weights between active units are written, so with sparse inputs
+ * two threads rarely touch the same weight; when they do, one of the two
+ * changes may be lost, and lost from the two weight layouts independently.
+ * The transposed layout is rebuilt from the row-major one after every
+ * epoch, so the two halves of the Gibbs chain, and a saved model, agree
+ * again at epoch boundaries.  The step size matches the synchronous trainer
+ * (the learning rate / number of inputs per input); the update rule is
+ * always SGD, and weight decay is applied in one pass after each epoch.
+ *
+ * Checkpoints and resuming work as in MiniBatchTrainer; the order the
+ * inputs were last shuffled into is saved with them.
+ */
+class AsyncTrainer {
+
+    private final SimpleRBM[] layers;
+    private final TrainingConfig config;
+    private final XoroshiroSampler rand;
+    private final long seed;
+    private final TrainingMonitor monitor;
+    private final Checkpointer checkpointer;
+    private final TrainingProgress resume;   // null for a new run
+
+    AsyncTrainer(SimpleRBM[] layers, TrainingConfig config) {
+        this(layers, config, null);
+    }
+
+    /**
+     * @param resume - where a checkpointed run stopped, or null to start
+     */
+    AsyncTrainer(SimpleRBM[] layers, TrainingConfig config, TrainingProgress resume) {
+        if (resume != null && resume.trainer != TrainingProgress.ASYNCHRONOUS) {
+            throw new IllegalArgumentException("the checkpoint was taken by the mini-batch "
+                    + "trainer");
+        }
+        this.layers = layers;
+        this.config = config;
+        this.resume = resume;
+        if (resume != null) {
+            this.seed = resume.seed;
+        } else {
+            this.seed = config.getSeed() == null ? new XoroshiroSampler().nextLong() : config.getSeed();
+        }
+        this.rand = new XoroshiroSampler(seed);
+        this.monitor = new TrainingMonitor(config);
+        this.checkpointer = new Checkpointer(config);
+    }
+
+    /**
+     * @param source - the first-layer inputs, without the bias; every thread
+     *                 reads its own shard of rows from it.  With a cache mode
+     *                 set, later layers read a cache built from it instead.
+     * @param numEpochs - the number of passes over inputs for each layer, or
+     *                    the most there can be with early stopping
+     */
+    void train(IndexedDataSource source, int numEpochs) throws IOException {
+        HoldoutSplit split = HoldoutSplit.create(source, config, rand);
+        EpochSchedule schedule = new EpochSchedule(layers, config, split, numEpochs, rand);
+        // the split of an indexed source is indexed too
+        source = (IndexedDataSource) split.training();
+        if (config.isVisibleBiasesFromData() && resume == null) {
+            layers[0].initVisibleBiases(source);
+        }
+        int numInputs = (int) source.size();
+        int threads = config.getThreads();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        RepresentationCache cache = null;
+        int base = 0;    // the layer source's rows are inputs to
+        long[][] layerStarts = new long[layers.length][];
+        int[][] inputReads = new int[layers.length][];
+        try {
+            for (int currLayer = 0; currLayer < layers.length; currLayer++) {
+                if (resume != null && currLayer <= resume.layer) {
+                    rand.setState(resume.layerStarts[currLayer]);
+                }
+                layerStarts[currLayer] = rand.getState();
+                if (currLayer > 0 && config.getCacheMode() != CacheMode.NONE) {
+                    if (cache != null) {
+                        inputReads[currLayer - 1] = cache.getReads();
+                    }
+                    RepresentationCache next = RepresentationCache.build(
+                            source, layers[currLayer - 1], config, rand);
+                    if (cache != null) {
+                        cache.close();
+                    }
+                    cache = next;
+                    source = cache;
+                    base = currLayer;
+                    if (resume != null && currLayer <= resume.layer) {
+                        cache.setReads(resume.reads == null ? null : resume.reads[currLayer]);
+                    }
+                }
+                if (resume != null && currLayer < resume.layer) {
+                    continue;
+                }
+                SimpleRBM rbm = layers[currLayer];
+                Optimizer optimizer = new Optimizer(rbm, config);
+
+                ShardTask[] shards = new ShardTask[threads];
+                int[] order = new int[numInputs];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                schedule.startLayer(currLayer);
+                if (resume != null && currLayer == resume.layer) {
+                    if (resume.order == null || resume.order.length != numInputs) {
+                        throw new IllegalArgumentException("the checkpoint was taken on "
+                                + "different inputs");
+                    }
+                    System.arraycopy(resume.order, 0, order, 0, numInputs);
+                    optimizer.restore(resume.velocity, resume.meanSquare, resume.steps);
+                    schedule.setState(resume.schedule);
+                    rand.setState(resume.rand);
+                }
+                monitor.layerStarted(currLayer, numEpochs);
+
+                while (schedule.next()) {
+                    int epoch = schedule.epoch();
+                    rbm.setAnnealingRate(schedule.annealingRate());
+                    optimizer.startEpoch(epoch);
+                    float delta = optimizer.getRate() / numInputs;
+                    monitor.epochStarted();
+                    boolean measuring = monitor.isActive();
+
+                    rand.shuffle(order);
+                    for (int t = 0; t < threads; t++) {
+                        int from = (int) ((long) order.length * t / threads);
+                        int to = (int) ((long) order.length * (t + 1) / threads);
+                        shards[t] = new ShardTask(source, order, from, to,
+                                base, currLayer, delta, rand.split(), measuring);
+                    }
+                    pool.invoke(new RecursiveAction() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected void compute() {
+                            invokeAll(shards);
+                        }
+                    });
+                    long start = System.nanoTime();
+                    if (threads > 1) {
+                        // races lose updates in each layout separately
+                        rbm.rebuildTranspose();
+                    }
+                    optimizer.decayWeights();
+
+                    long positiveNanos = 0;
+                    long gibbsNanos = 0;
+                    long updateNanos = System.nanoTime() - start;
+                    double error = 0;
+                    for (ShardTask shard : shards) {
+                        positiveNanos += shard.positiveNanos;
+                        gibbsNanos += shard.gibbsNanos;
+                        updateNanos += shard.updateNanos;
+                        error += shard.reconstructionError;
+                    }
+                    double convergence = schedule.epochFinished();
+                    monitor.epochFinished(currLayer, epoch, numInputs, positiveNanos, gibbsNanos,
+                            updateNanos, error, measuring ? numInputs : 0, convergence, rbm);
+                    if (checkpointer.epochFinished()) {
+                        TrainingProgress progress = new TrainingProgress();
+                        progress.trainer = TrainingProgress.ASYNCHRONOUS;
+                        progress.numEpochs = numEpochs;
+                        progress.seed = seed;
+                        progress.layer = currLayer;
+                        progress.schedule = schedule.getState();
+                        progress.steps = optimizer.getSteps();
+                        progress.rand = rand.getState();
+                        progress.layerStarts = Arrays.copyOf(layerStarts, currLayer + 1);
+                        progress.order = order.clone();
+                        float[] velocity = optimizer.getVelocity();
+                        float[] meanSquare = optimizer.getMeanSquare();
+                        progress.velocity = velocity == null ? null : velocity.clone();
+                        progress.meanSquare = meanSquare == null ? null : meanSquare.clone();
+                        int[] reads = cache == null ? null : cache.getReads();
+                        if (reads != null) {
+                            progress.reads = Arrays.copyOf(inputReads, currLayer + 1);
+                            progress.reads[currLayer] = reads;
+                        }
+                        checkpointer.save(layers, progress);
+                    }
+                }
+                monitor.layerFinished(currLayer);
+            }
+            checkpointer.close();
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Class: ShardTask
+     *
+     * One thread's share of an epoch: inputs order[from, to).
+     */
+    private class ShardTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IndexedDataSource source;
+        private final int[] order;
+        private final int from;
+        private final int to;
+        private final int base;
+        private final int currLayer;
+        private final float delta;
+        private final Sampler rand;
+        private final boolean measuring;
+
+        // measurements, only taken when measuring
+        long positiveNanos;
+        long gibbsNanos;
+        long updateNanos;
+        double reconstructionError;
+
+        ShardTask(IndexedDataSource source, int[] order, int from, int to,
+                int base, int currLayer, float delta, Sampler rand, boolean measuring) {
+            this.source = source;
+            this.order = order;
+            this.from = from;
+            this.to = to;
+            this.base = base;
+            this.currLayer = currLayer;
+            this.delta = delta;
+            this.rand = rand;
+            this.measuring = measuring;
+        }
+
+        @Override
+        protected void compute() {
+            SimpleRBM rbm = layers[currLayer];
+            Propagator propagator = new Propagator(layers, base, currLayer);
+            long[] input = new long[Bits.words(layers[base].getNumVisible())];
+            long[] visible = new long[Bits.words(rbm.getNumVisible())];
+            long[] hidden = new long[Bits.words(rbm.getNumHidden())];
+            // the positive phase's states, kept until the chain has run
+            long[] data = new long[visible.length];
+            long[] dataHidden = new long[hidden.length];
+            float[] visibleSums = new float[rbm.getNumVisible()];
+            float[] hiddenSums = new float[rbm.getNumHidden()];
+            int[] offsets = new int[Math.max(rbm.getNumVisible(), rbm.getNumHidden())];
+            int k = config.getGibbsSteps();
+
+            for (int n = from; n < to; n++) {
+                long start = measuring ? System.nanoTime() : 0;
+                source.row(order[n], input);
+                Bits.set(input, source.width());
+                propagator.propagate(input, visible, rand);
+                rbm.sampleHidden(visible, hidden, hiddenSums, offsets, rand);
+                System.arraycopy(visible, 0, data, 0, data.length);
+                System.arraycopy(hidden, 0, dataHidden, 0, dataHidden.length);
+                long chain = measuring ? System.nanoTime() : 0;
+                for (int step = 0; step < k; step++) {
+                    rbm.sampleVisible(hidden, visible, visibleSums, offsets, rand);
+                    if (step == 0 && measuring) {
+                        reconstructionError += TrainingMonitor.mismatch(data, visible,
+                                rbm.getNumVisible() - 1);
+                    }
+                    rbm.sampleHidden(visible, hidden, hiddenSums, offsets, rand);
+                }
+                long negative = measuring ? System.nanoTime() : 0;
+                rbm.applyOuterProduct(data, dataHidden, delta);
+                rbm.applyOuterProduct(visible, hidden, -delta);
+                if (measuring) {
+                    positiveNanos += chain - start;
+                    gibbsNanos += negative - chain;
+                    updateNanos += System.nanoTime() - negative;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package rbm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs InferenceSession.predict over many rows at once, spread across a
+ * pool of threads, and hands back one probability vector per row in input
+ * order.
+ *
+ * Rows are cut into fixed chunks; each chunk runs in its own session, and
+ * every row's sampling is seeded from the predictor's seed and the row's
+ * index alone.  The results therefore do not depend on the thread count or
+ * on scheduling.  When writing, only a bounded window of chunks is in
+ * flight ahead of the writer, so output streams as soon as the earliest
+ * chunks finish and memory does not grow with the number of rows.
+ */
+public class BatchPredictor {
+
+    private static final int CHUNK_ROWS = 64;
+    private static final int CHUNKS_PER_THREAD = 4;   // in flight ahead of the writer
+
+    // spreads row indices out before they are used as seeds
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final InferenceModel model;
+    private final int numCycles;
+    private final int threads;
+    private final long[] clamped;
+    private long seed;
+    private InferenceMode mode = InferenceMode.SAMPLED;
+
+    /**
+     *
+     * @param model - the model to predict with; shared by every thread
+     * @param numCycles - the number of up and down passes per row
+     * @param threads - the number of rows to work on at once
+     */
+    public BatchPredictor(InferenceModel model, int numCycles, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        this.model = model;
+        this.numCycles = numCycles;
+        this.threads = threads;
+        this.clamped = model.clamped().clone();
+        this.seed = new XoroshiroSampler().nextLong();
+    }
+
+    /**
+     * @param seed - makes every later prediction repeatable
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param mode - how every session propagates activity (see
+     *               InferenceMode); MEAN_FIELD ignores the seed
+     */
+    public void setMode(InferenceMode mode) {
+        this.mode = mode;
+    }
+
+    /*
+     * Method: clamp / unclamp
+     *
+     * choose which inputs keep the row's value while sampling; every session
+     * the predictor creates starts with these clamps (by default the model's).
+     * Indices outside the inputs, the bias among them, are ignored.
+     */
+    public void clamp(int index) {
+        if (index >= 0 && index < model.getInputWidth()) {
+            Bits.set(clamped, index);
+        }
+    }
+
+    public void clamp(int from, int to) {
+        for (int i = from; i < to; i++) {
+            clamp(i);
+        }
+    }
+
+    public void unclamp(int index) {
+        if (index >= 0 && index < model.getInputWidth()) {
+            Bits.clear(clamped, index);
+        }
+    }
+
+
+    /**
+     *
+     * @param rows - the starting input values, one row per prediction
+     * @return for each row, the activation probability of every input after
+     *         the last pass
+     */
+    public float[][] predict(boolean[][] rows) {
+        float[][] results = new float[rows.length][];
+        run(rows, results, null);
+        return results;
+    }
+
+    /**
+     * Writes one line per row, in the order of rows, holding that row's
+     * probabilities separated by commas.
+     *
+     * @param rows - the starting input values, one row per prediction
+     * @param out - receives the predictions; not closed
+     */
+    public void predict(boolean[][] rows, Writer out) throws IOException {
+        try {
+            run(rows, null, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+
+    /*
+     * Method: run
+     *
+     * predicts every row, keeping at most a window of chunks in flight, and
+     * either stores or writes each chunk in order as it is finished
+     */
+    private void run(boolean[][] rows, float[][] results, Writer out) {
+        int numChunks = (rows.length + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        int window = threads * CHUNKS_PER_THREAD;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            ArrayDeque<ForkJoinTask<float[][]>> pending = new ArrayDeque<ForkJoinTask<float[][]>>();
+            int submitted = 0;
+            for (int chunk = 0; chunk < numChunks; chunk++) {
+                while (submitted < numChunks && submitted < chunk + window) {
+                    ChunkTask task = new ChunkTask(rows, submitted * CHUNK_ROWS,
+                            Math.min(rows.length, (submitted + 1) * CHUNK_ROWS));
+                    pending.add(pool == null ? task : pool.submit(task));
+                    submitted++;
+                }
+                ForkJoinTask<float[][]> next = pending.remove();
+                float[][] predictions = pool == null ? next.invoke() : next.join();
+                if (out == null) {
+                    System.arraycopy(predictions, 0, results, chunk * CHUNK_ROWS,
+                            predictions.length);
+                } else {
+                    write(predictions, out);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private static void write(float[][] predictions, Writer out) {
+        try {
+            StringBuilder line = new StringBuilder();
+            for (float[] prediction : predictions) {
+                line.setLength(0);
+                for (int i = 0; i < prediction.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(prediction[i]);
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * Class: ChunkTask
+     *
+     * predicts rows [from, to) in a session of its own
+     */
+    private class ChunkTask extends RecursiveTask<float[][]> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean[][] rows;
+        private final int from;
+        private final int to;
+
+        ChunkTask(boolean[][] rows, int from, int to) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected float[][] compute() {
+            InferenceSession session = model.newSession(0);
+            session.setClamps(clamped);
+            session.setMode(mode);
+            float[][] predictions = new float[to - from][];
+            for (int r = from; r < to; r++) {
+                session.setSeed(seed + r * GOLDEN_GAMMA);
+                predictions[r - from] = session.predict(rows[r], numCycles);
+            }
+            return predictions;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package rbm;
+
+/*
+ * Class: Bits
+ *
+ * static helpers for unit states packed into long[] bitsets.  Unit i lives in
+ * bit (i & 63) of word (i >>> 6).  Hot loops walk the set bits directly with
+ *
+ *     long word = bits[w];
+ *     while (word != 0) {
+ *         int i = (w << 6) + Long.numberOfTrailingZeros(word);
+ *         word &= word - 1;
+ *         ...
+ *     }
+ *
+ * so that inactive units cost nothing.
+ */
+public final class Bits {
+
+    private Bits() {
+    }
+
+    /**
+     * @param numBits - the number of units to store
+     * @return - the number of longs needed to hold that many bits
+     */
+    public static int words(int numBits) {
+        return (numBits + 63) >>> 6;
+    }
+
+    public static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void clear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    public static void set(long[] bits, int index, boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << index;
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * @return - the index of the first set bit at or after fromIndex, or -1
+     */
+    public static int nextSetBit(long[] bits, int fromIndex) {
+        int w = fromIndex >>> 6;
+        if (w >= bits.length) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == bits.length) {
+                return -1;
+            }
+            word = bits[w];
+        }
+    }
+
+    /**
+     * @return - the number of set bits
+     */
+    public static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @param values - the unit states to pack
+     * @param numBits - the width of the packed row; values beyond it are
+     *                  ignored and missing values are left off
+     * @return - a new bitset holding the first numBits values
+     */
+    public static long[] pack(boolean[] values, int numBits) {
+        long[] bits = new long[words(numBits)];
+        for (int i = 0; i < values.length && i < numBits; i++) {
+            if (values[i]) {
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return - the first numBits units of the bitset as a boolean array
+     */
+    public static boolean[] unpack(long[] bits, int numBits) {
+        boolean[] values = new boolean[numBits];
+        for (int i = 0; i < numBits; i++) {
+            values[i] = (bits[i >>> 6] & (1L << i)) != 0;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,134 @@
+package rbm;
+
+/*
+ * Class: CDWorker
+ *
+ * Runs contrastive divergence over a range of rows of a mini-batch for one
+ * layer, adding the positive and negative statistics into its own
+ * accumulators.  Each phase is applied to every row before the next phase
+ * starts, so the batch is processed as a (sparse) matrix-matrix product
+ * against the weights rather than one input at a time.
+ *
+ * The worker also records which visible units were on in any row it
+ * accumulated, since only those rows of pos and neg can be non-zero; with
+ * sparse inputs that lets the update skip most of the weights.
+ */
+class CDWorker {
+
+    final SimpleRBM rbm;
+    final float[] pos;
+    final float[] neg;
+    final float[] visibleSums;
+    final float[] hiddenSums;
+    final int[] offsets;   // row offsets for the sums (see Kernels.sumRows)
+    final long[] touched;  // visible units on in any accumulated row
+    Sampler rand;
+
+    // measurements for TrainingMonitor, summed until the trainer resets them
+    long positiveNanos;
+    long gibbsNanos;
+    long updateNanos;
+    double reconstructionError;
+    long[][] data;   // copies of the data rows, or null when not measuring
+
+    CDWorker(SimpleRBM rbm, float[] pos, float[] neg, Sampler rand) {
+        this.rbm = rbm;
+        this.pos = pos;
+        this.neg = neg;
+        this.visibleSums = new float[rbm.getNumVisible()];
+        this.hiddenSums = new float[rbm.getNumHidden()];
+        this.offsets = new int[Math.max(rbm.getNumVisible(), rbm.getNumHidden())];
+        this.touched = new long[Bits.words(rbm.getNumVisible())];
+        this.rand = rand;
+    }
+
+    /*
+     * Method: run
+     *
+     * CD-k on rows [from, to) of visible/hidden.  visible holds the data on
+     * entry and the reconstructions on exit.
+     */
+    void run(long[][] visible, long[][] hidden, int from, int to, int k) {
+        long start = System.nanoTime();
+        positive(visible, hidden, from, to);
+        long mid = System.nanoTime();
+        if (data != null) {
+            for (int b = from; b < to; b++) {
+                System.arraycopy(visible[b], 0, data[b], 0, data[b].length);
+            }
+        }
+        gibbs(visible, hidden, from, to, k);
+        negative(visible, hidden, from, to, 1);
+        positiveNanos += mid - start;
+        gibbsNanos += System.nanoTime() - mid;
+    }
+
+    /*
+     * Method: positive
+     *
+     * samples the hidden rows from the data in visible and accumulates their
+     * outer products into pos
+     */
+    void positive(long[][] visible, long[][] hidden, int from, int to) {
+        for (int b = from; b < to; b++) {
+            rbm.sampleHidden(visible[b], hidden[b], hiddenSums, offsets, rand);
+        }
+        rbm.accumulate(visible, hidden, from, to, pos, 1);
+        for (int b = from; b < to; b++) {
+            touch(visible[b]);
+        }
+    }
+
+    /*
+     * Method: gibbs
+     *
+     * advances rows [from, to) k full visible/hidden cycles, starting from
+     * the hidden states.  When measuring, the first reconstructions are
+     * compared with the saved data rows.
+     */
+    void gibbs(long[][] visible, long[][] hidden, int from, int to, int k) {
+        for (int step = 0; step < k; step++) {
+            for (int b = from; b < to; b++) {
+                rbm.sampleVisible(hidden[b], visible[b], visibleSums, offsets, rand);
+            }
+            if (step == 0 && data != null) {
+                for (int b = from; b < to; b++) {
+                    reconstructionError += TrainingMonitor.mismatch(data[b], visible[b],
+                            rbm.getNumVisible() - 1);
+                }
+            }
+            for (int b = from; b < to; b++) {
+                rbm.sampleHidden(visible[b], hidden[b], hiddenSums, offsets, rand);
+            }
+        }
+    }
+
+    /*
+     * Method: negative
+     *
+     * accumulates the outer products of rows [from, to) into neg, each
+     * counted scale times
+     */
+    void negative(long[][] visible, long[][] hidden, int from, int to, float scale) {
+        rbm.accumulate(visible, hidden, from, to, neg, scale);
+        for (int b = from; b < to; b++) {
+            touch(visible[b]);
+        }
+    }
+
+    private void touch(long[] visible) {
+        for (int w = 0; w < touched.length; w++) {
+            touched[w] |= visible[w];
+        }
+    }
+
+    /*
+     * Method: resetMeasurements
+     */
+    void resetMeasurements() {
+        positiveNanos = 0;
+        gibbsNanos = 0;
+        updateNanos = 0;
+        reconstructionError = 0;
+    }
+}
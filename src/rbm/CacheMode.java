@@ -0,0 +1,22 @@
+package rbm;
+
+/*
+ * Enum: CacheMode
+ *
+ * What greedy layer-wise training keeps of the data set between layers (see
+ * TrainingConfig.setCacheMode).
+ *
+ *   NONE           nothing: every input is pushed up through all the lower
+ *                  layers, with fresh samples, each time it is used
+ *   SAMPLED        once a layer is trained the data set is passed through
+ *                  it one time and the sampled hidden states, packed one bit
+ *                  per unit, become the next layer's inputs
+ *   PROBABILITIES  as SAMPLED, but the hidden activation probabilities are
+ *                  kept (4 bytes per unit) and fresh binary inputs are
+ *                  sampled from them every time a row is read
+ */
+public enum CacheMode {
+    NONE,
+    SAMPLED,
+    PROBABILITIES
+}
@@ -0,0 +1,254 @@
+package rbm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws samples from an InferenceModel by running many independent Gibbs
+ * chains side by side.  Each chain does what SimpleLayeredRBM.layeredGenerate
+ * does for one: it starts from a seed and makes up and down passes through
+ * every layer.  After the first burnIn cycles it records the input layer
+ * every thinning cycles, until it has taken the number of samples asked for.
+ *
+ * The chains run in blocks of up to 32, in lockstep, with the block's unit
+ * states and scratch sums allocated once for the whole run.  Each pass
+ * through a layer reads its weights from memory once for the whole block:
+ * a unit that any chain has on has its row added to the sums of every chain
+ * that has it on (see InferenceLayer.hiddenSums), so a layer too big for
+ * the cache is read once per block rather than once per chain.  Each
+ * chain's sums still come out exactly as a single session computes them.
+ * Blocks are spread across a pool of threads.  Chain c samples from
+ * seed + c * GOLDEN_GAMMA alone, so the samples do not depend on the thread
+ * count or on scheduling, and each chain's last sample is what a session
+ * seeded that way would generate after the same number of cycles.
+ */
+public class ChainSampler {
+
+    private static final int CHAINS_PER_TASK = 32;
+
+    // spreads chain indices out before they are used as seeds
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final InferenceModel model;
+    private final int numChains;
+    private final int threads;
+    private final long[] clamped;
+    private long seed;
+    private int burnIn = 0;
+    private int thinning = 1;
+
+    /**
+     *
+     * @param model - the model to sample from; shared by every thread
+     * @param numChains - the number of chains run side by side
+     * @param threads - the number of blocks of chains to work on at once
+     */
+    public ChainSampler(InferenceModel model, int numChains, int threads) {
+        if (numChains < 1) {
+            throw new IllegalArgumentException("numChains must be at least 1, got " + numChains);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        this.model = model;
+        this.numChains = numChains;
+        this.threads = threads;
+        this.clamped = model.clamped().clone();
+        this.seed = new XoroshiroSampler().nextLong();
+    }
+
+    public int getNumChains() {
+        return numChains;
+    }
+
+    /**
+     * @param seed - makes every later call to sample repeatable
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param burnIn - the number of cycles each chain makes before its first
+     *                 sample may be taken
+     */
+    public void setBurnIn(int burnIn) {
+        if (burnIn < 0) {
+            throw new IllegalArgumentException("burnIn must not be negative, got " + burnIn);
+        }
+        this.burnIn = burnIn;
+    }
+
+    /**
+     * @param thinning - the number of cycles between one sample of a chain
+     *                   and the next; 1 keeps every cycle after the burn-in
+     */
+    public void setThinning(int thinning) {
+        if (thinning < 1) {
+            throw new IllegalArgumentException("thinning must be at least 1, got " + thinning);
+        }
+        this.thinning = thinning;
+    }
+
+    /*
+     * Method: clamp / unclamp
+     *
+     * choose which inputs keep their seed value while sampling; every chain
+     * starts with these clamps (by default the model's).  Indices outside the
+     * inputs, the bias among them, are ignored.
+     */
+    public void clamp(int index) {
+        if (index >= 0 && index < model.getInputWidth()) {
+            Bits.set(clamped, index);
+        }
+    }
+
+    public void clamp(int from, int to) {
+        for (int i = from; i < to; i++) {
+            clamp(i);
+        }
+    }
+
+    public void unclamp(int index) {
+        if (index >= 0 && index < model.getInputWidth()) {
+            Bits.clear(clamped, index);
+        }
+    }
+
+
+    /**
+     *
+     * @param seed - the starting input values of every chain
+     * @param samplesPerChain - the number of samples each chain takes
+     * @return the samples, packed (see Bits), without the bias; sample k of
+     *         chain c is row k * numChains + c
+     */
+    public long[][] sample(boolean[] seed, int samplesPerChain) {
+        boolean[][] seeds = new boolean[numChains][];
+        for (int c = 0; c < numChains; c++) {
+            seeds[c] = seed;
+        }
+        return sample(seeds, samplesPerChain);
+    }
+
+    /**
+     *
+     * @param seeds - the starting input values, one row per chain
+     * @param samplesPerChain - the number of samples each chain takes
+     * @return the samples, packed as above
+     */
+    public long[][] sample(boolean[][] seeds, int samplesPerChain) {
+        if (seeds.length != numChains) {
+            throw new IllegalArgumentException("expected " + numChains + " seeds, got "
+                    + seeds.length);
+        }
+        if (samplesPerChain < 0) {
+            throw new IllegalArgumentException("samplesPerChain must not be negative, got "
+                    + samplesPerChain);
+        }
+        long[][] samples = new long[samplesPerChain * numChains][];
+        List<BlockTask> tasks = new ArrayList<BlockTask>();
+        for (int from = 0; from < numChains; from += CHAINS_PER_TASK) {
+            tasks.add(new BlockTask(seeds, from, Math.min(numChains, from + CHAINS_PER_TASK),
+                    samplesPerChain, samples));
+        }
+        if (threads == 1 || tasks.size() == 1) {
+            for (BlockTask task : tasks) {
+                task.invoke();
+            }
+            return samples;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        return samples;
+    }
+
+    /*
+     * Class: BlockTask
+     *
+     * runs chains [from, to) in lockstep and stores their samples
+     */
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean[][] seeds;
+        private final int from;
+        private final int to;
+        private final int samplesPerChain;
+        private final long[][] samples;
+
+        BlockTask(boolean[][] seeds, int from, int to, int samplesPerChain, long[][] samples) {
+            this.seeds = seeds;
+            this.from = from;
+            this.to = to;
+            this.samplesPerChain = samplesPerChain;
+            this.samples = samples;
+        }
+
+        @Override
+        protected void compute() {
+            int size = to - from;
+            int numLayers = model.getNumLayers();
+            int width = model.getInputWidth();
+
+            // units[l][b] is chain from + b's visible layer of layer l
+            long[][][] units = new long[numLayers + 1][size][];
+            float[][][] sums = new float[numLayers + 1][size][];
+            for (int l = 0; l <= numLayers; l++) {
+                int count = l < numLayers ? model.getNumVisible(l) : model.getNumHidden(l - 1);
+                for (int b = 0; b < size; b++) {
+                    units[l][b] = new long[Bits.words(count)];
+                    sums[l][b] = new float[count];
+                    Bits.set(units[l][b], count - 1);  // bias is always on
+                }
+            }
+            Sampler[] rand = new Sampler[size];
+            for (int b = 0; b < size; b++) {
+                rand[b] = new XoroshiroSampler(seed + (from + b) * GOLDEN_GAMMA);
+                boolean[] start = seeds[from + b];
+                for (int i = 0; i < width; i++) {
+                    Bits.set(units[0][b], i, i < start.length && start[i]);
+                }
+            }
+
+            int numCycles = burnIn + samplesPerChain * thinning;
+            int words = Bits.words(width);
+            for (int cycle = 1; cycle <= numCycles; cycle++) {
+                // the same passes as InferenceSession, for every chain at once
+                for (int l = 0; l < numLayers; l++) {
+                    model.layer(l).sampleHidden(units[l], units[l + 1], 0, size, sums[l + 1],
+                            rand);
+                }
+                for (int l = numLayers; l > 0; --l) {
+                    model.layer(l - 1).sampleVisible(units[l], units[l - 1],
+                            l == 1 ? clamped : null, 0, size, sums[l - 1], rand);
+                }
+
+                if (cycle > burnIn && (cycle - burnIn) % thinning == 0) {
+                    int k = (cycle - burnIn) / thinning - 1;
+                    for (int b = 0; b < size; b++) {
+                        long[] sample = Arrays.copyOf(units[0][b], words);
+                        if ((width & 63) != 0) {
+                            sample[words - 1] &= (1L << width) - 1;  // drops the bias
+                        }
+                        samples[k * numChains + from + b] = sample;
+                    }
+                }
+            }
+        }
+    }
+}
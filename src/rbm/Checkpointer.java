@@ -0,0 +1,137 @@
+package rbm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/*
+ * Class: Checkpointer
+ *
+ * Writes a trainer's checkpoints: model files holding every layer's weights
+ * and, on the layer in training, its TrainingProgress, from which
+ * SimpleLayeredRBM.resume carries on.  A checkpoint is due at the end of an
+ * epoch once checkpointEpochs epochs or checkpointSeconds seconds have
+ * passed since the last one (see TrainingConfig).
+ *
+ * Taking a checkpoint only copies the arrays, on the training thread; a
+ * background thread writes the copy to a temporary file beside the target,
+ * forces it to disk and moves it over the target, atomically where the file
+ * system allows, so the target always holds a whole checkpoint.  Training
+ * goes on meanwhile.  If the last write is still running when the next
+ * checkpoint is due, the trainer waits for it, so there is at most one copy
+ * in memory; a failed write is reported at the next checkpoint or at close.
+ *
+ * Checkpoints are taken between epochs, where every batch has been applied,
+ * so the accumulated statistics are 0 and are not written.
+ */
+class Checkpointer {
+
+    private final File file;
+    private final int everyEpochs;
+    private final long everyNanos;
+
+    private int epochs;
+    private long last = System.nanoTime();
+    private Thread writer;
+    private volatile IOException failure;
+
+    Checkpointer(TrainingConfig config) {
+        this.file = config.getCheckpointFile();
+        this.everyEpochs = config.getCheckpointEpochs();
+        this.everyNanos = config.getCheckpointSeconds() * 1000000000L;
+    }
+
+    /*
+     * Method: epochFinished
+     *
+     * counts an epoch; true if a checkpoint is now due
+     */
+    boolean epochFinished() {
+        if (file == null) {
+            return false;
+        }
+        epochs++;
+        return (everyEpochs > 0 && epochs >= everyEpochs)
+                || (everyNanos > 0 && System.nanoTime() - last >= everyNanos);
+    }
+
+    /*
+     * Method: save
+     *
+     * copies the layers and starts writing them, with progress, in the
+     * background
+     */
+    void save(SimpleRBM[] layers, TrainingProgress progress) throws IOException {
+        await();
+        final ModelFile.LayerImage[] images = new ModelFile.LayerImage[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            images[l] = new ModelFile.LayerImage(layers[l], true);
+        }
+        progress.addTo(images[progress.layer]);
+        epochs = 0;
+        last = System.nanoTime();
+
+        writer = new Thread("rbm-checkpoint") {
+            @Override
+            public void run() {
+                try {
+                    write(images);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        };
+        writer.start();
+    }
+
+    /*
+     * Method: close
+     *
+     * waits for the last checkpoint to be written
+     */
+    void close() throws IOException {
+        await();
+    }
+
+
+    private void write(ModelFile.LayerImage[] images) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            ModelFile.write(images, temporary, true);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void await() throws IOException {
+        if (writer != null) {
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        IOException e = failure;
+        if (e != null) {
+            failure = null;
+            throw new IOException("could not write the checkpoint " + file, e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package rbm;
+
+/*
+ * Class: ConvergenceCheck
+ *
+ * Measures a StoppingMetric for the layer being trained on the rows a
+ * HoldoutSplit sampled.  The rows are propagated up to the layer once when
+ * its training starts, since the layers below no longer change, and every
+ * measurement reseeds its own Sampler the same way, so two measurements
+ * differ only because the layer's weights did.
+ *
+ * Sigmoids are taken at an annealing rate of 1: the metric follows the
+ * weights, not the temperature the trainer happens to be sampling at.
+ */
+class ConvergenceCheck {
+
+    private final SimpleRBM[] layers;
+    private final StoppingMetric metric;
+    private final long seed;
+    private final long[][] heldOutInputs;
+    private final long[][] trainingInputs;
+    private final Sampler rand = new XoroshiroSampler(0);
+
+    // per-layer state, set up by startLayer
+    private SimpleRBM rbm;
+    private long[][] heldOut;
+    private long[][] training;
+    private long[] hidden;
+    private float[] hiddenSums;
+    private float[] visibleSums;
+    private int[] offsets;
+
+    ConvergenceCheck(SimpleRBM[] layers, StoppingMetric metric, HoldoutSplit split, long seed) {
+        if (metric == StoppingMetric.FREE_ENERGY_GAP && split.heldOutSample().length == 0) {
+            throw new IllegalArgumentException("the free-energy gap needs a validation split");
+        }
+        this.layers = layers;
+        this.metric = metric;
+        this.seed = seed;
+        this.heldOutInputs = split.heldOutSample();
+        this.trainingInputs = split.trainingSample();
+    }
+
+    void startLayer(int layer) {
+        rbm = layers[layer];
+        hidden = new long[Bits.words(rbm.getNumHidden())];
+        hiddenSums = new float[rbm.getNumHidden()];
+        visibleSums = new float[rbm.getNumVisible()];
+        offsets = new int[Math.max(rbm.getNumVisible(), rbm.getNumHidden())];
+        Propagator propagator = new Propagator(layers, layer);
+        rand.setSeed(seed);
+        heldOut = propagate(heldOutInputs, propagator);
+        training = propagate(trainingInputs, propagator);
+    }
+
+    /*
+     * Method: measure
+     *
+     * the metric for the layer's current weights; lower is better
+     */
+    double measure() {
+        rand.setSeed(seed);
+        if (metric == StoppingMetric.FREE_ENERGY_GAP) {
+            return meanFreeEnergy(heldOut) - meanFreeEnergy(training);
+        }
+        long[][] rows = heldOut.length > 0 ? heldOut : training;
+        double error = 0;
+        for (long[] visible : rows) {
+            error += reconstructionError(visible);
+        }
+        return error / rows.length;
+    }
+
+
+    private long[][] propagate(long[][] inputs, Propagator propagator) {
+        long[][] rows = new long[inputs.length][Bits.words(rbm.getNumVisible())];
+        for (int n = 0; n < inputs.length; n++) {
+            propagator.propagate(inputs[n], rows[n], rand);
+        }
+        return rows;
+    }
+
+    private double reconstructionError(long[] visible) {
+        int numHidden = rbm.getNumHidden();
+        int numVisible = rbm.getNumVisible();
+        rbm.computeHiddenSums(visible, hiddenSums, offsets);
+        rbm.logsig(hiddenSums, hiddenSums, numHidden - 1, 1);
+        float[] uniforms = rand.uniforms(numHidden - 1);
+        for (int j = 0; j < numHidden - 1; j++) {
+            Bits.set(hidden, j, uniforms[j] < hiddenSums[j]);
+        }
+        Bits.set(hidden, numHidden - 1);
+
+        rbm.computeVisibleSums(hidden, visibleSums, offsets);
+        rbm.logsig(visibleSums, visibleSums, numVisible - 1, 1);
+        double error = 0;
+        for (int i = 0; i < numVisible - 1; i++) {
+            double diff = (Bits.get(visible, i) ? 1 : 0) - visibleSums[i];
+            error += diff * diff;
+        }
+        return error / (numVisible - 1);
+    }
+
+    /*
+     * Method: meanFreeEnergy
+     *
+     * F(v) = -sum_i v_i a_i - sum_j log(1 + e^(x_j)), with the visible biases
+     * a_i read from the hidden bias column and x_j the hidden unit's input.
+     * Both come out of one pass of computeHiddenSums, since the bias units
+     * are ordinary units in this layout.
+     */
+    private double meanFreeEnergy(long[][] rows) {
+        int numHidden = rbm.getNumHidden();
+        double total = 0;
+        for (long[] visible : rows) {
+            rbm.computeHiddenSums(visible, hiddenSums, offsets);
+            double energy = -hiddenSums[numHidden - 1];
+            for (int j = 0; j < numHidden - 1; j++) {
+                double x = hiddenSums[j];
+                energy -= x > 0 ? x + Math.log1p(Math.exp(-x)) : Math.log1p(Math.exp(x));
+            }
+            total += energy;
+        }
+        return total / rows.length;
+    }
+}
@@ -0,0 +1,43 @@
+package rbm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+ * Interface: DataSource
+ *
+ * A re-iterable collection of binary training rows.  Each call to open()
+ * starts a new pass over the rows, so a source can be trained on for many
+ * epochs without ever being held on the heap as a whole.
+ *
+ * Rows are packed like layer states (see Bits): column i is bit (i & 63) of
+ * word (i >>> 6).  They do not include the bias unit.
+ */
+public interface DataSource {
+
+    /**
+     * @return - the number of columns in every row
+     */
+    int width();
+
+    /**
+     * @return - the number of rows in one pass
+     */
+    long size();
+
+    /**
+     * @return - a cursor positioned before the first row.  Cursors are used by
+     * one thread at a time and must be closed.
+     */
+    Cursor open() throws IOException;
+
+    interface Cursor extends Closeable {
+
+        /**
+         * @param row - receives the next row in its first
+         *              Bits.words(width()) longs
+         * @return - false once every row has been read
+         */
+        boolean next(long[] row) throws IOException;
+    }
+}
@@ -0,0 +1,56 @@
+package rbm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ * Class: EpochEvent
+ *
+ * A Flight Recorder event spanning one training epoch of one layer, with
+ * the same numbers as EpochMetrics.  When no recording is running the event
+ * is disabled and costs a field check per epoch.
+ */
+@Name("rbm.Epoch")
+@Label("RBM Training Epoch")
+@Category("SimpleRBM")
+@Description("One epoch of greedy layer-wise RBM training")
+class EpochEvent extends Event {
+
+    @Label("Layer")
+    int layer;
+
+    @Label("Epoch")
+    int epoch;
+
+    @Label("Samples")
+    long samples;
+
+    @Label("Samples per Second")
+    double samplesPerSecond;
+
+    @Label("Positive Phase")
+    @Timespan
+    long positiveNanos;
+
+    @Label("Gibbs Chain")
+    @Timespan
+    long gibbsNanos;
+
+    @Label("Weight Update")
+    @Timespan
+    long updateNanos;
+
+    @Label("Reconstruction Error")
+    double reconstructionError;
+
+    @Label("Weight Norm")
+    double weightNorm;
+
+    @Label("Stopping Metric")
+    @Description("NaN on epochs where it was not measured")
+    double convergence;
+}
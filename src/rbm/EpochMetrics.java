@@ -0,0 +1,122 @@
+package rbm;
+
+/*
+ * Class: EpochMetrics
+ *
+ * What happened during one epoch of training one layer.  Phase times are
+ * summed over worker threads, so with several threads they can add up to
+ * more than the epoch's wall-clock time.
+ *
+ *   positive   propagating inputs up from the layers below, sampling the
+ *              hidden layer from the data and accumulating statistics
+ *   gibbs      running the chains and accumulating the negative statistics
+ *   update     combining worker statistics and changing the weights
+ */
+public final class EpochMetrics {
+
+    private final int layer;
+    private final int epoch;
+    private final long samples;
+    private final long elapsedNanos;
+    private final long positiveNanos;
+    private final long gibbsNanos;
+    private final long updateNanos;
+    private final double reconstructionError;
+    private final double weightNorm;
+    private final float annealingRate;
+    private final double convergence;
+
+    EpochMetrics(int layer, int epoch, long samples, long elapsedNanos, long positiveNanos,
+            long gibbsNanos, long updateNanos, double reconstructionError, double weightNorm,
+            float annealingRate, double convergence) {
+        this.layer = layer;
+        this.epoch = epoch;
+        this.samples = samples;
+        this.elapsedNanos = elapsedNanos;
+        this.positiveNanos = positiveNanos;
+        this.gibbsNanos = gibbsNanos;
+        this.updateNanos = updateNanos;
+        this.reconstructionError = reconstructionError;
+        this.weightNorm = weightNorm;
+        this.annealingRate = annealingRate;
+        this.convergence = convergence;
+    }
+
+    public int getLayer() {
+        return layer;
+    }
+
+    /**
+     * @return the epoch's number within its layer, from 0
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return the number of inputs trained on
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getSamplesPerSecond() {
+        return elapsedNanos == 0 ? 0 : samples * 1e9 / elapsedNanos;
+    }
+
+    public long getPositiveNanos() {
+        return positiveNanos;
+    }
+
+    public long getGibbsNanos() {
+        return gibbsNanos;
+    }
+
+    public long getUpdateNanos() {
+        return updateNanos;
+    }
+
+    /**
+     * @return the fraction of visible units that differ between each input
+     *         and its sampled reconstruction after the first Gibbs step,
+     *         averaged over the epoch.  NaN with persistent chains, whose
+     *         negative phase does not start from the data.
+     */
+    public double getReconstructionError() {
+        return reconstructionError;
+    }
+
+    /**
+     * @return the Frobenius norm of the layer's weights (biases included)
+     *         at the end of the epoch
+     */
+    public double getWeightNorm() {
+        return weightNorm;
+    }
+
+    public float getAnnealingRate() {
+        return annealingRate;
+    }
+
+    /**
+     * @return the stopping metric (see TrainingConfig.setStoppingMetric),
+     *         or NaN if it was not measured after this epoch
+     */
+    public double getConvergence() {
+        return convergence;
+    }
+
+    @Override
+    public String toString() {
+        String line = String.format("layer %d epoch %d: %.0f samples/s, positive %.1f ms, gibbs %.1f ms,"
+                + " update %.1f ms, reconstruction error %.4f, weight norm %.3f",
+                layer, epoch, getSamplesPerSecond(), positiveNanos / 1e6, gibbsNanos / 1e6,
+                updateNanos / 1e6, reconstructionError, weightNorm);
+        return Double.isNaN(convergence) ? line
+                : line + String.format(", stopping metric %.5f", convergence);
+    }
+}
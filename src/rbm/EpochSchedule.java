@@ -0,0 +1,128 @@
+package rbm;
+
+/*
+ * Class: EpochSchedule
+ *
+ * Decides how many epochs each layer is trained for and the annealing rate
+ * of each one.  Without early stopping this is the original schedule: every
+ * layer runs numEpochs epochs while the rate falls from 1 to 1 / numEpochs.
+ *
+ * With a convergence check, the metric is measured every checkInterval
+ * epochs.  A measurement improves on the best so far if it is lower by more
+ * than minImprovement of the best.  Once patience measurements in a row have
+ * not, the layer has plateaued: it is cooled down over one more interval,
+ * the rate falling in even steps from where it stands to the schedule's
+ * final 1 / numEpochs, and then its training stops.  A layer that stops
+ * early therefore ends at the same temperature as one trained in full, and
+ * its annealing is spread over the epochs it actually ran.
+ */
+class EpochSchedule {
+
+    private final int numEpochs;
+    private final int interval;
+    private final int patience;
+    private final double minImprovement;
+    private final ConvergenceCheck check;   // null when nothing is measured
+
+    // per-layer state, reset by startLayer
+    private int epoch;
+    private int stopAt;       // one past the last epoch
+    private int coolStart;    // first epoch of the cool-down
+    private float coolFrom;   // rate before the cool-down
+    private double best;
+    private int stale;
+
+    EpochSchedule(SimpleRBM[] layers, TrainingConfig config, HoldoutSplit split, int numEpochs,
+            Sampler rand) {
+        this.numEpochs = numEpochs;
+        this.interval = config.getCheckInterval();
+        this.patience = config.getPatience();
+        this.minImprovement = config.getMinImprovement();
+        this.check = split.isSampled()
+                ? new ConvergenceCheck(layers, config.getStoppingMetric(), split, rand.nextLong())
+                : null;
+    }
+
+    void startLayer(int layer) {
+        epoch = -1;
+        stopAt = numEpochs;
+        coolStart = numEpochs;
+        best = Double.POSITIVE_INFINITY;
+        stale = 0;
+        if (check != null) {
+            check.startLayer(layer);
+        }
+    }
+
+    /*
+     * Method: getState / setState
+     *
+     * the layer's position in the schedule, for a checkpoint taken between
+     * epochs; setState follows startLayer for the same layer
+     */
+    long[] getState() {
+        return new long[] {epoch, stopAt, coolStart, Float.floatToRawIntBits(coolFrom),
+                Double.doubleToRawLongBits(best), stale};
+    }
+
+    void setState(long[] state) {
+        if (state.length != 6) {
+            throw new IllegalArgumentException("not an epoch schedule's state");
+        }
+        epoch = (int) state[0];
+        stopAt = (int) state[1];
+        coolStart = (int) state[2];
+        coolFrom = Float.intBitsToFloat((int) state[3]);
+        best = Double.longBitsToDouble(state[4]);
+        stale = (int) state[5];
+    }
+
+    /*
+     * Method: next
+     *
+     * moves on to the next epoch, if the layer has one
+     */
+    boolean next() {
+        return ++epoch < stopAt;
+    }
+
+    int epoch() {
+        return epoch;
+    }
+
+    float annealingRate() {
+        if (epoch < coolStart) {
+            //falls from 1 to 0 during training
+            return 1 - (1f/numEpochs)*epoch;
+        }
+        float step = (float) (epoch - coolStart + 1) / (stopAt - coolStart);
+        return coolFrom + (1f/numEpochs - coolFrom) * step;
+    }
+
+    /*
+     * Method: epochFinished
+     *
+     * measures the layer if a check is due and decides whether it has
+     * plateaued
+     *
+     * returns the measurement, or NaN if none was due
+     */
+    double epochFinished() {
+        if (check == null || (epoch + 1) % interval != 0) {
+            return Double.NaN;
+        }
+        double value = check.measure();
+        if (patience == 0 || epoch >= coolStart) {
+            return value;
+        }
+        if (best == Double.POSITIVE_INFINITY || value < best - minImprovement * Math.abs(best)) {
+            best = value;
+            stale = 0;
+        } else if (++stale == patience) {
+            coolFrom = annealingRate();
+            coolStart = epoch + 1;
+            stopAt = Math.min(numEpochs, coolStart + interval);
+        }
+        return value;
+    }
+}
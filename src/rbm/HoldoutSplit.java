@@ -0,0 +1,237 @@
+package rbm;
+
+import java.io.IOException;
+
+/*
+ * Class: HoldoutSplit
+ *
+ * Divides a DataSource into the rows that are trained on and a held-out
+ * validation set, and keeps a fixed sample of each for ConvergenceCheck.
+ *
+ * Each row is held out with probability fraction, decided by a generator
+ * seeded once, so every pass over the source makes the same choices without
+ * having to remember them.  Indexed sources are viewed through a table of
+ * the training rows' indices and stay indexed; other sources are filtered as
+ * they stream.  Only the samples, at most SAMPLE_ROWS rows of each kind
+ * chosen by reservoir sampling, are held in memory.
+ */
+class HoldoutSplit {
+
+    static final int SAMPLE_ROWS = 1 << 12;
+
+    private final DataSource training;
+    private final long[][] heldOutSample;
+    private final long[][] trainingSample;
+
+    private HoldoutSplit(DataSource training, long[][] heldOutSample, long[][] trainingSample) {
+        this.training = training;
+        this.heldOutSample = heldOutSample;
+        this.trainingSample = trainingSample;
+    }
+
+
+    /*
+     * Method: create
+     *
+     * holds out rows of source if the config asks for a validation split, and
+     * samples rows for the convergence check if the config asks for one;
+     * otherwise hands source back untouched and draws nothing from rand
+     */
+    static HoldoutSplit create(DataSource source, TrainingConfig config, Sampler rand)
+            throws IOException {
+        double fraction = config.getValidationFraction();
+        if (fraction == 0 && config.getPatience() == 0) {
+            return new HoldoutSplit(source, null, null);
+        }
+        long seed = rand.nextLong();
+        Sampler pick = rand.split();
+        int words = Bits.words(source.width() + 1);
+        long[][] heldOut = new long[SAMPLE_ROWS][words];
+        long[][] kept = new long[SAMPLE_ROWS][words];
+        long numHeldOut = 0;
+        long numKept = 0;
+        int[] indices = source instanceof IndexedDataSource
+                ? new int[(int) Math.min(Integer.MAX_VALUE, source.size())] : null;
+
+        Sampler holdout = new XoroshiroSampler(seed);
+        long[] row = new long[words];
+        DataSource.Cursor cursor = source.open();
+        try {
+            for (int n = 0; cursor.next(row); n++) {
+                Bits.set(row, source.width());
+                if (fraction > 0 && holdout.nextDouble() < fraction) {
+                    sample(row, heldOut, numHeldOut++, pick);
+                } else {
+                    if (indices != null) {
+                        indices[(int) numKept] = n;
+                    }
+                    sample(row, kept, numKept++, pick);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (numKept == 0) {
+            throw new IllegalArgumentException("the validation split left no rows to train on");
+        }
+
+        DataSource training;
+        if (fraction == 0) {
+            training = source;
+        } else if (indices != null) {
+            training = new IndexedRows((IndexedDataSource) source, indices, (int) numKept);
+        } else {
+            training = new StreamedRows(source, numKept, fraction, seed);
+        }
+        return new HoldoutSplit(training,
+                trim(heldOut, numHeldOut), trim(kept, numKept));
+    }
+
+
+    /**
+     * @return the rows to train on
+     */
+    DataSource training() {
+        return training;
+    }
+
+    boolean isSampled() {
+        return trainingSample != null;
+    }
+
+    /*
+     * Method: heldOutSample / trainingSample
+     *
+     * the sampled rows, packed with the bias bit set as the first layer
+     * expects; the held-out sample is empty without a validation split
+     */
+    long[][] heldOutSample() {
+        return heldOutSample;
+    }
+
+    long[][] trainingSample() {
+        return trainingSample;
+    }
+
+
+    // keeps a uniform sample of rows in sample, given that seen came before
+    private static void sample(long[] row, long[][] sample, long seen, Sampler pick) {
+        long slot = seen < sample.length ? seen : (long) (pick.nextDouble() * (seen + 1));
+        if (slot < sample.length) {
+            System.arraycopy(row, 0, sample[(int) slot], 0, row.length);
+        }
+    }
+
+    private static long[][] trim(long[][] sample, long count) {
+        if (count >= sample.length) {
+            return sample;
+        }
+        long[][] trimmed = new long[(int) count][];
+        System.arraycopy(sample, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    /*
+     * Class: IndexedRows
+     *
+     * the training rows of an indexed source, still readable in any order
+     */
+    private static class IndexedRows implements IndexedDataSource {
+        private final IndexedDataSource source;
+        private final int[] indices;
+        private final int size;
+
+        IndexedRows(IndexedDataSource source, int[] indices, int size) {
+            this.source = source;
+            this.indices = indices;
+            this.size = size;
+        }
+
+        @Override
+        public int width() {
+            return source.width();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void row(int index, long[] row) {
+            source.row(indices[index], row);
+        }
+
+        @Override
+        public Cursor open() {
+            return new Cursor() {
+                private int next = 0;
+
+                @Override
+                public boolean next(long[] row) {
+                    if (next == size) {
+                        return false;
+                    }
+                    row(next++, row);
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /*
+     * Class: StreamedRows
+     *
+     * the training rows of a streaming source, found by repeating the
+     * split's draws on every pass
+     */
+    private static class StreamedRows implements DataSource {
+        private final DataSource source;
+        private final long size;
+        private final double fraction;
+        private final long seed;
+
+        StreamedRows(DataSource source, long size, double fraction, long seed) {
+            this.source = source;
+            this.size = size;
+            this.fraction = fraction;
+            this.seed = seed;
+        }
+
+        @Override
+        public int width() {
+            return source.width();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Cursor open() throws IOException {
+            final Cursor rows = source.open();
+            final Sampler holdout = new XoroshiroSampler(seed);
+            return new Cursor() {
+                @Override
+                public boolean next(long[] row) throws IOException {
+                    while (rows.next(row)) {
+                        if (holdout.nextDouble() >= fraction) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    rows.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package rbm;
+
+/*
+ * Interface: IndexedDataSource
+ *
+ * A DataSource whose rows can also be read in any order, from any number of
+ * threads at once.  Sources small enough to fit in the trainer's shuffle
+ * window are fully permuted every epoch instead of being streamed.
+ */
+public interface IndexedDataSource extends DataSource {
+
+    /**
+     * @param index - the row to read, from 0 to size() - 1
+     * @param row - receives the row in its first Bits.words(width()) longs
+     */
+    void row(int index, long[] row);
+}
@@ -0,0 +1,634 @@
+package rbm;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/*
+ * Class: InferenceLayer
+ *
+ * The read-only part of one trained RBM layer: its sizes, annealing rate,
+ * sigmoid and weights.  Subclasses decide how the weights are stored and
+ * how one unit's row of them is added to the other layer's sums; the
+ * weighted sums and sampling, for one state or a batch of them, are shared.
+ * Dense keeps the trained float weights, Half and Int8 smaller copies of
+ * them (see WeightPrecision), and Mapped reads them in place from a model
+ * file's mapping (see ModelFile.toInferenceModel).  Nothing here changes
+ * after construction, so one layer can be used by any number of threads,
+ * each passing in its own unit states, scratch sums and Sampler.
+ */
+abstract class InferenceLayer {
+
+    final int numVisible;     // visible units, including the bias
+    final int numHidden;      // hidden units, including the bias
+    final float annealingRate;
+    final Sigmoid sigmoid;
+
+    InferenceLayer(int numVisible, int numHidden, float annealingRate, Sigmoid sigmoid) {
+        this.numVisible = numVisible;
+        this.numHidden = numHidden;
+        this.annealingRate = annealingRate;
+        this.sigmoid = sigmoid;
+    }
+
+    /*
+     * Method: create
+     *
+     * a layer holding row-major weights at the given precision; a FLOAT32
+     * layer takes ownership of weights, the others only read them
+     */
+    static InferenceLayer create(int numVisible, int numHidden, float annealingRate,
+            Sigmoid sigmoid, float[] weights, WeightPrecision precision) {
+        switch (precision) {
+        case FLOAT16:
+            return new Half(numVisible, numHidden, annealingRate, sigmoid, weights);
+        case INT8:
+            return new Int8(numVisible, numHidden, annealingRate, sigmoid, weights);
+        default:
+            return new Dense(numVisible, numHidden, annealingRate, sigmoid, weights);
+        }
+    }
+
+    /*
+     * Method: weightBytes
+     *
+     * the memory the layer's weights take up
+     */
+    abstract long weightBytes();
+
+    /*
+     * Method: maxWeightError
+     *
+     * the largest difference between a stored weight and the trained one
+     */
+    abstract float maxWeightError();
+
+    /*
+     * Method: addHiddenRow / addVisibleRow
+     *
+     * add scale times the weights out of visible unit i to the sums of the
+     * hidden units, or out of hidden unit j to the sums of the visible units
+     */
+    abstract void addHiddenRow(int i, float scale, float[] sums);
+
+    abstract void addVisibleRow(int j, float scale, float[] sums);
+
+    /*
+     * Method: finishVisibleSums
+     *
+     * called once the rows have been added to sums of the visible units,
+     * with the activation of the hidden bias, for layers that apply part of
+     * the weights at the end; nothing by default
+     */
+    void finishVisibleSums(float[] sums, float bias) {
+    }
+
+    /*
+     * Method: hiddenSums / visibleSums
+     *
+     * fill sums with the weighted sum into every unit of one layer from the
+     * packed states of the other, as SimpleRBM.computeHiddenSums and
+     * computeVisibleSums do.  offsets is scratch space for layers that sum
+     * rows with Kernels.sumRows, with one entry per unit of the other layer.
+     */
+    void hiddenSums(long[] visible, float[] sums, int[] offsets) {
+        Arrays.fill(sums, 0, numHidden, 0);
+        for (int w = 0; w < visible.length; w++) {
+            long word = visible[w];
+            while (word != 0) {
+                addHiddenRow((w << 6) + Long.numberOfTrailingZeros(word), 1, sums);
+                word &= word - 1;
+            }
+        }
+    }
+
+    void visibleSums(long[] hidden, float[] sums, int[] offsets) {
+        Arrays.fill(sums, 0, numVisible, 0);
+        for (int w = 0; w < hidden.length; w++) {
+            long word = hidden[w];
+            while (word != 0) {
+                addVisibleRow((w << 6) + Long.numberOfTrailingZeros(word), 1, sums);
+                word &= word - 1;
+            }
+        }
+        finishVisibleSums(sums, Bits.get(hidden, numHidden - 1) ? 1 : 0);
+    }
+
+    /*
+     * Method: hiddenSums / visibleSums
+     *
+     * the same sums for rows [from, to) of a batch, each coming out exactly
+     * as above.  Each unit that any of the rows has on has its weights added
+     * to the sums of every row that has it on before the next unit's are
+     * read, so the batch reads the layer's weights once rather than once for
+     * each row.  Dense does the same a block of weights at a time, with
+     * Kernels.sumRows.
+     */
+    void hiddenSums(long[][] visible, int from, int to, float[][] sums) {
+        for (int b = from; b < to; b++) {
+            Arrays.fill(sums[b], 0, numHidden, 0);
+        }
+        for (int w = 0; w < visible[from].length; w++) {
+            long any = 0;
+            for (int b = from; b < to; b++) {
+                any |= visible[b][w];
+            }
+            while (any != 0) {
+                long bit = any & -any;
+                any ^= bit;
+                int i = (w << 6) + Long.numberOfTrailingZeros(bit);
+                for (int b = from; b < to; b++) {
+                    if ((visible[b][w] & bit) != 0) {
+                        addHiddenRow(i, 1, sums[b]);
+                    }
+                }
+            }
+        }
+    }
+
+    void visibleSums(long[][] hidden, int from, int to, float[][] sums) {
+        for (int b = from; b < to; b++) {
+            Arrays.fill(sums[b], 0, numVisible, 0);
+        }
+        for (int w = 0; w < hidden[from].length; w++) {
+            long any = 0;
+            for (int b = from; b < to; b++) {
+                any |= hidden[b][w];
+            }
+            while (any != 0) {
+                long bit = any & -any;
+                any ^= bit;
+                int j = (w << 6) + Long.numberOfTrailingZeros(bit);
+                for (int b = from; b < to; b++) {
+                    if ((hidden[b][w] & bit) != 0) {
+                        addVisibleRow(j, 1, sums[b]);
+                    }
+                }
+            }
+        }
+        for (int b = from; b < to; b++) {
+            finishVisibleSums(sums[b], Bits.get(hidden[b], numHidden - 1) ? 1 : 0);
+        }
+    }
+
+    /*
+     * Method: hiddenSums / visibleSums
+     *
+     * the same sums taken over real-valued activations, for mean-field
+     * inference; units whose activation is 0 are skipped
+     */
+    void hiddenSums(float[] visible, float[] sums) {
+        Arrays.fill(sums, 0, numHidden, 0);
+        for (int i = 0; i < numVisible; i++) {
+            if (visible[i] != 0) {
+                addHiddenRow(i, visible[i], sums);
+            }
+        }
+    }
+
+    void visibleSums(float[] hidden, float[] sums) {
+        Arrays.fill(sums, 0, numVisible, 0);
+        for (int j = 0; j < numHidden; j++) {
+            if (hidden[j] != 0) {
+                addVisibleRow(j, hidden[j], sums);
+            }
+        }
+        finishVisibleSums(sums, hidden[numHidden - 1]);
+    }
+
+    /*
+     * Method: sampleHidden
+     *
+     * samples the hidden layer from a visible one and leaves the bias on
+     */
+    void sampleHidden(long[] visible, long[] hidden, float[] sums, int[] offsets,
+            Sampler rand) {
+        hiddenSums(visible, sums, offsets);
+        drawHidden(sums, hidden, rand);
+    }
+
+    /*
+     * Method: sampleHidden
+     *
+     * the same for rows [from, to) of a batch, row b drawing from rand[b]
+     */
+    void sampleHidden(long[][] visible, long[][] hidden, int from, int to, float[][] sums,
+            Sampler[] rand) {
+        hiddenSums(visible, from, to, sums);
+        for (int b = from; b < to; b++) {
+            drawHidden(sums[b], hidden[b], rand[b]);
+        }
+    }
+
+    private void drawHidden(float[] sums, long[] hidden, Sampler rand) {
+        sigmoid.apply(sums, sums, numHidden - 1, annealingRate);
+        float[] uniforms = rand.uniforms(numHidden - 1);
+        for (int j = 0; j < numHidden - 1; ++j) {
+            Bits.set(hidden, j, uniforms[j] < sums[j]);
+        }
+        Bits.set(hidden, numHidden - 1);
+    }
+
+    /*
+     * Method: sampleVisible
+     *
+     * samples the visible layer from a hidden one.  Units set in clamped keep
+     * the value visible already holds; with no clamps (a layer above the
+     * first) the bias is simply left alone, as in SimpleRBM.sampleVisible.
+     */
+    void sampleVisible(long[] hidden, long[] visible, long[] clamped, float[] sums,
+            int[] offsets, Sampler rand) {
+        visibleSums(hidden, sums, offsets);
+        drawVisible(sums, visible, clamped, rand);
+    }
+
+    /*
+     * Method: sampleVisible
+     *
+     * the same for rows [from, to) of a batch, row b drawing from rand[b]
+     */
+    void sampleVisible(long[][] hidden, long[][] visible, long[] clamped, int from, int to,
+            float[][] sums, Sampler[] rand) {
+        visibleSums(hidden, from, to, sums);
+        for (int b = from; b < to; b++) {
+            drawVisible(sums[b], visible[b], clamped, rand[b]);
+        }
+    }
+
+    private void drawVisible(float[] sums, long[] visible, long[] clamped, Sampler rand) {
+        int count = clamped == null ? numVisible - 1 : numVisible;
+        sigmoid.apply(sums, sums, count, 1);
+        float[] uniforms = rand.uniforms(count);
+        for (int i = 0; i < count; ++i) {
+            if (clamped == null || !Bits.get(clamped, i)) {
+                Bits.set(visible, i, uniforms[i] < sums[i]);
+            }
+        }
+    }
+
+    /*
+     * Method: meanHidden
+     *
+     * sets hidden to the activation probabilities of the hidden layer given
+     * visible activations, with the bias at 1
+     */
+    void meanHidden(float[] visible, float[] hidden) {
+        hiddenSums(visible, hidden);
+        sigmoid.apply(hidden, hidden, numHidden - 1, annealingRate);
+        hidden[numHidden - 1] = 1;
+    }
+
+    /*
+     * Method: meanVisible
+     *
+     * sets visible to the activation probabilities of the visible layer given
+     * hidden activations.  As in sampleVisible, clamped units (or, with no
+     * clamps, the bias) keep their value.
+     */
+    void meanVisible(float[] hidden, float[] visible, long[] clamped, float[] sums) {
+        visibleSums(hidden, sums);
+        int count = clamped == null ? numVisible - 1 : numVisible;
+        sigmoid.apply(sums, sums, count, 1);
+        for (int i = 0; i < count; ++i) {
+            if (clamped == null || !Bits.get(clamped, i)) {
+                visible[i] = sums[i];
+            }
+        }
+    }
+
+    /*
+     * Class: Dense
+     *
+     * float32 weights in both layouts SimpleRBM keeps, so that either sum
+     * reads one contiguous row per active unit
+     */
+    static final class Dense extends InferenceLayer {
+        private final float[] weights;    // weights[i * numHidden + j]
+        private final float[] weightsT;   // weightsT[j * numVisible + i]
+
+        /*
+         * takes ownership of weights, a row-major copy no one else writes
+         */
+        Dense(int numVisible, int numHidden, float annealingRate, Sigmoid sigmoid,
+                float[] weights) {
+            super(numVisible, numHidden, annealingRate, sigmoid);
+            this.weights = weights;
+            this.weightsT = new float[weights.length];
+            for (int i = 0; i < numVisible; ++i) {
+                int row = i * numHidden;
+                for (int j = 0; j < numHidden; ++j) {
+                    weightsT[j * numVisible + i] = weights[row + j];
+                }
+            }
+        }
+
+        @Override
+        long weightBytes() {
+            return 4L * (weights.length + weightsT.length);
+        }
+
+        @Override
+        float maxWeightError() {
+            return 0;
+        }
+
+        // the same sums as adding one row at a time, in registers
+        @Override
+        void hiddenSums(long[] visible, float[] sums, int[] offsets) {
+            Kernels.INSTANCE.sumRows(weights, numHidden, visible, offsets, sums, numHidden);
+        }
+
+        @Override
+        void visibleSums(long[] hidden, float[] sums, int[] offsets) {
+            Kernels.INSTANCE.sumRows(weightsT, numVisible, hidden, offsets, sums, numVisible);
+        }
+
+        @Override
+        void hiddenSums(long[][] visible, int from, int to, float[][] sums) {
+            Kernels.INSTANCE.sumRows(weights, numHidden, visible, from, to, sums, numHidden);
+        }
+
+        @Override
+        void visibleSums(long[][] hidden, int from, int to, float[][] sums) {
+            Kernels.INSTANCE.sumRows(weightsT, numVisible, hidden, from, to, sums, numVisible);
+        }
+
+        @Override
+        void addHiddenRow(int i, float scale, float[] sums) {
+            Kernels.INSTANCE.addScaledRow(weights, i * numHidden, scale, sums, numHidden);
+        }
+
+        @Override
+        void addVisibleRow(int j, float scale, float[] sums) {
+            Kernels.INSTANCE.addScaledRow(weightsT, j * numVisible, scale, sums, numVisible);
+        }
+    }
+
+    /*
+     * Class: Mapped
+     *
+     * float32 weights read in place from a model file's mapping, which holds
+     * only the row-major layout.  Nothing is copied onto the heap, so a
+     * model of any size is ready to score as soon as its file is mapped, and
+     * pages are read in as the sums first touch them.  The sums into hidden
+     * units add whole rows, as in Dense; the sums into visible units take
+     * each visible unit's row against the hidden states instead of adding
+     * transposed rows, which adds the same terms in the same order, so the
+     * results match Dense exactly.
+     */
+    static final class Mapped extends InferenceLayer {
+        private final FloatBuffer weights;   // weights.get(i * numHidden + j)
+
+        /*
+         * reads weights, numVisible * numHidden floats, only through
+         * absolute gets, so one buffer serves every thread
+         */
+        Mapped(int numVisible, int numHidden, float annealingRate, Sigmoid sigmoid,
+                FloatBuffer weights) {
+            super(numVisible, numHidden, annealingRate, sigmoid);
+            this.weights = weights;
+        }
+
+        // mapped, not on the heap
+        @Override
+        long weightBytes() {
+            return 4L * numVisible * numHidden;
+        }
+
+        @Override
+        float maxWeightError() {
+            return 0;
+        }
+
+        @Override
+        void addHiddenRow(int i, float scale, float[] sums) {
+            int row = i * numHidden;
+            for (int j = 0; j < numHidden; ++j) {
+                sums[j] += scale * weights.get(row + j);
+            }
+        }
+
+        @Override
+        void addVisibleRow(int j, float scale, float[] sums) {
+            for (int i = 0; i < numVisible; ++i) {
+                sums[i] += scale * weights.get(i * numHidden + j);
+            }
+        }
+
+        @Override
+        void hiddenSums(long[] visible, float[] sums, int[] offsets) {
+            Arrays.fill(sums, 0, numHidden, 0);
+            for (int w = 0; w < visible.length; w++) {
+                long word = visible[w];
+                while (word != 0) {
+                    int row = ((w << 6) + Long.numberOfTrailingZeros(word)) * numHidden;
+                    for (int j = 0; j < numHidden; ++j) {
+                        sums[j] += weights.get(row + j);
+                    }
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        void visibleSums(long[] hidden, float[] sums, int[] offsets) {
+            for (int i = 0; i < numVisible; ++i) {
+                int row = i * numHidden;
+                float sum = 0;
+                for (int w = 0; w < hidden.length; w++) {
+                    long word = hidden[w];
+                    while (word != 0) {
+                        sum += weights.get(row + (w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+                sums[i] = sum;
+            }
+        }
+
+        // each visible unit's row is read once and taken against every state
+        @Override
+        void visibleSums(long[][] hidden, int from, int to, float[][] sums) {
+            for (int i = 0; i < numVisible; ++i) {
+                int row = i * numHidden;
+                for (int b = from; b < to; b++) {
+                    float sum = 0;
+                    for (int w = 0; w < hidden[b].length; w++) {
+                        long word = hidden[b][w];
+                        while (word != 0) {
+                            sum += weights.get(row + (w << 6) + Long.numberOfTrailingZeros(word));
+                            word &= word - 1;
+                        }
+                    }
+                    sums[b][i] = sum;
+                }
+            }
+        }
+
+        @Override
+        void visibleSums(float[] hidden, float[] sums) {
+            for (int i = 0; i < numVisible; ++i) {
+                int row = i * numHidden;
+                float sum = 0;
+                for (int j = 0; j < numHidden; ++j) {
+                    if (hidden[j] != 0) {
+                        sum += hidden[j] * weights.get(row + j);
+                    }
+                }
+                sums[i] = sum;
+            }
+        }
+    }
+
+    /*
+     * Class: Half
+     *
+     * the weights as IEEE fp16, in both layouts like Dense; the sums are
+     * taken in float
+     */
+    static final class Half extends InferenceLayer {
+        private final short[] weights;    // weights[i * numHidden + j]
+        private final short[] weightsT;   // weightsT[j * numVisible + i]
+        private final float maxError;
+
+        Half(int numVisible, int numHidden, float annealingRate, Sigmoid sigmoid,
+                float[] trained) {
+            super(numVisible, numHidden, annealingRate, sigmoid);
+            this.weights = new short[trained.length];
+            this.weightsT = new short[trained.length];
+            float error = 0;
+            for (int i = 0; i < numVisible; ++i) {
+                int row = i * numHidden;
+                for (int j = 0; j < numHidden; ++j) {
+                    short half = Kernels.floatToHalf(trained[row + j]);
+                    weights[row + j] = half;
+                    weightsT[j * numVisible + i] = half;
+                    error = Math.max(error,
+                            Math.abs(trained[row + j] - Kernels.halfToFloat(half)));
+                }
+            }
+            this.maxError = error;
+        }
+
+        @Override
+        long weightBytes() {
+            return 2L * (weights.length + weightsT.length);
+        }
+
+        @Override
+        float maxWeightError() {
+            return maxError;
+        }
+
+        @Override
+        void addHiddenRow(int i, float scale, float[] sums) {
+            Kernels.INSTANCE.addScaledHalfRow(weights, i * numHidden, scale, sums, numHidden);
+        }
+
+        @Override
+        void addVisibleRow(int j, float scale, float[] sums) {
+            Kernels.INSTANCE.addScaledHalfRow(weightsT, j * numVisible, scale, sums,
+                    numVisible);
+        }
+    }
+
+    /*
+     * Class: Int8
+     *
+     * the weights between non-bias units as signed bytes, a row per visible
+     * unit i with its own scale: w[i][j] ~ scales[i] * q[i][j], where
+     * scales[i] = max |w[i][j]| / 127.  They are kept in both layouts, like
+     * Dense; since a row's scale is shared by every weight in it, the sums
+     * into visible units add up the bytes and apply each unit's scale once
+     * at the end.
+     *
+     * The bias weights are kept as floats: the visible biases can be much
+     * larger than the other weights (see TrainingConfig
+     * .setVisibleBiasesFromData) and would otherwise swamp the row scales.
+     */
+    static final class Int8 extends InferenceLayer {
+        private final int rows;           // numVisible - 1
+        private final int columns;        // numHidden - 1
+        private final byte[] weights;     // weights[i * columns + j]
+        private final byte[] weightsT;    // weightsT[j * rows + i]
+        private final float[] scales;     // one per row
+        private final float[] visibleBias;   // w[i][numHidden - 1], every i
+        private final float[] hiddenBias;    // w[numVisible - 1][j], every j
+        private final float maxError;
+
+        Int8(int numVisible, int numHidden, float annealingRate, Sigmoid sigmoid,
+                float[] trained) {
+            super(numVisible, numHidden, annealingRate, sigmoid);
+            this.rows = numVisible - 1;
+            this.columns = numHidden - 1;
+            this.weights = new byte[rows * columns];
+            this.weightsT = new byte[rows * columns];
+            this.scales = new float[rows];
+            this.visibleBias = new float[numVisible];
+            this.hiddenBias = new float[numHidden];
+
+            float error = 0;
+            for (int i = 0; i < rows; ++i) {
+                int row = i * numHidden;
+                float max = 0;
+                for (int j = 0; j < columns; ++j) {
+                    max = Math.max(max, Math.abs(trained[row + j]));
+                }
+                float scale = max / 127;
+                scales[i] = scale;
+                for (int j = 0; j < columns; ++j) {
+                    byte q = scale == 0 ? 0 : (byte) Math.round(trained[row + j] / scale);
+                    weights[i * columns + j] = q;
+                    weightsT[j * rows + i] = q;
+                    error = Math.max(error, Math.abs(trained[row + j] - scale * q));
+                }
+            }
+            for (int i = 0; i < numVisible; ++i) {
+                visibleBias[i] = trained[i * numHidden + numHidden - 1];
+            }
+            System.arraycopy(trained, rows * numHidden, hiddenBias, 0, numHidden);
+            this.maxError = error;
+        }
+
+        @Override
+        long weightBytes() {
+            return weights.length + weightsT.length
+                    + 4L * (scales.length + visibleBias.length + hiddenBias.length);
+        }
+
+        @Override
+        float maxWeightError() {
+            return maxError;
+        }
+
+        @Override
+        void addHiddenRow(int i, float scale, float[] sums) {
+            if (i == rows) {
+                Kernels.INSTANCE.addScaledRow(hiddenBias, 0, scale, sums, numHidden);
+            } else {
+                Kernels.INSTANCE.addScaledRow(weights, i * columns, scale * scales[i], sums,
+                        columns);
+                sums[columns] += scale * visibleBias[i];
+            }
+        }
+
+        // the hidden bias's row is added by finishVisibleSums, after the
+        // scales, which the other rows' bytes still need
+        @Override
+        void addVisibleRow(int j, float scale, float[] sums) {
+            if (j != columns) {
+                Kernels.INSTANCE.addScaledRow(weightsT, j * rows, scale, sums, rows);
+                sums[rows] += scale * hiddenBias[j];
+            }
+        }
+
+        @Override
+        void finishVisibleSums(float[] sums, float bias) {
+            for (int i = 0; i < rows; i++) {
+                sums[i] *= scales[i];
+            }
+            if (bias != 0) {
+                Kernels.INSTANCE.addScaledRow(visibleBias, 0, bias, sums, numVisible);
+            }
+        }
+    }
+}
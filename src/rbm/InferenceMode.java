@@ -0,0 +1,18 @@
+package rbm;
+
+/*
+ * Enum: InferenceMode
+ *
+ * How an InferenceSession moves activity through the network.
+ *
+ *   SAMPLED     every pass samples binary unit states, as layeredGenerate
+ *               does; results are random and are usually averaged over
+ *               many cycles
+ *   MEAN_FIELD  every pass propagates the activation probabilities
+ *               themselves, up the stack and back down, without sampling;
+ *               results are deterministic and settle in a few cycles
+ */
+public enum InferenceMode {
+    SAMPLED,
+    MEAN_FIELD
+}
@@ -0,0 +1,178 @@
+package rbm;
+
+import java.io.IOException;
+
+/**
+ * A trained SimpleLayeredRBM frozen for inference.  The model holds only the
+ * layers' weights and settings, copied when it is built (or, loaded from a
+ * model file at FLOAT32, read in place from the file's mapping) and never
+ * written afterwards, so one model can be shared by any number of threads
+ * without locking.  All mutable state (unit values, clamps, scratch sums and the
+ * random number generator) lives in InferenceSessions, one per thread.
+ *
+ * Sampling follows SimpleLayeredRBM.layeredGenerate exactly, so a session
+ * seeded like the network's layers gives the same results.
+ *
+ * A model can also hold its weights at reduced precision (see
+ * WeightPrecision), which cuts its memory to a half or a quarter at the cost
+ * of a small, bounded change in the probabilities it computes.
+ */
+public final class InferenceModel {
+
+    private final InferenceLayer[] layers;
+    private final long[] clamped;   // the input layer's clamps when frozen
+    private final WeightPrecision precision;
+
+    InferenceModel(InferenceLayer[] layers, long[] clamped, WeightPrecision precision) {
+        this.layers = layers;
+        this.clamped = clamped;
+        this.precision = precision;
+    }
+
+
+    /**
+     *
+     * @param network - a trained network; later training does not affect the
+     *                  model
+     * @return a model holding a copy of the network's weights, annealing
+     *         rates, sigmoids and input clamps
+     */
+    public static InferenceModel of(SimpleLayeredRBM network) {
+        return of(network, WeightPrecision.FLOAT32);
+    }
+
+    /**
+     *
+     * @param network - a trained network; later training does not affect the
+     *                  model
+     * @param precision - how the model stores the weights
+     * @return a model holding a copy of the network's weights, at that
+     *         precision, and of its annealing rates, sigmoids and input
+     *         clamps
+     */
+    public static InferenceModel of(SimpleLayeredRBM network, WeightPrecision precision) {
+        InferenceLayer[] layers = new InferenceLayer[network.layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            SimpleRBM rbm = network.layers[l];
+            float[] weights = precision == WeightPrecision.FLOAT32
+                    ? rbm.weights.clone() : rbm.weights;
+            layers[l] = InferenceLayer.create(rbm.numVisible, rbm.numHidden,
+                    rbm.annealingRate, rbm.sigmoid, weights, precision);
+        }
+        long[] clamped = ((InputRBM) network.layers[0]).clampedNodes.clone();
+        return new InferenceModel(layers, clamped, precision);
+    }
+
+    /**
+     *
+     * @param filename - a file written by ModelFile.save
+     * @return the file's network as a model that reads its weights in place
+     *         from the file's mapping (see ModelFile.toInferenceModel), so it
+     *         is ready without copying them.  Each sum reads the mapping
+     *         through plain loops; for long scoring runs,
+     *         ModelFile.load(filename).freeze() copies the weights onto the
+     *         heap once and scores faster.
+     */
+    public static InferenceModel load(String filename) throws IOException {
+        return load(filename, WeightPrecision.FLOAT32);
+    }
+
+    /**
+     *
+     * @param filename - a file written by ModelFile.save
+     * @param precision - how the model stores the weights
+     * @return the file's network as a model at that precision, read without
+     *         building a trainable network first
+     */
+    public static InferenceModel load(String filename, WeightPrecision precision)
+            throws IOException {
+        ModelFile file = ModelFile.open(filename);
+        try {
+            return file.toInferenceModel(precision);
+        } finally {
+            file.close();
+        }
+    }
+
+
+    /**
+     *
+     * @return a new session with its own state, seeded from the clock
+     */
+    public InferenceSession newSession() {
+        return new InferenceSession(this, new XoroshiroSampler());
+    }
+
+    /**
+     *
+     * @param seed - seeds the session's sampling, so that two sessions with
+     *               the same seed give the same results
+     * @return a new session with its own state
+     */
+    public InferenceSession newSession(long seed) {
+        return new InferenceSession(this, new XoroshiroSampler(seed));
+    }
+
+
+    public int getNumLayers() {
+        return layers.length;
+    }
+
+    /**
+     * @return the number of inputs, not counting the bias
+     */
+    public int getInputWidth() {
+        return layers[0].numVisible - 1;
+    }
+
+    /**
+     * @return the number of visible units in a layer, including the bias
+     */
+    public int getNumVisible(int layer) {
+        return layers[layer].numVisible;
+    }
+
+    /**
+     * @return the number of hidden units in a layer, including the bias
+     */
+    public int getNumHidden(int layer) {
+        return layers[layer].numHidden;
+    }
+
+    public float getAnnealingRate(int layer) {
+        return layers[layer].annealingRate;
+    }
+
+    public WeightPrecision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return the memory taken up by the weights of every layer, in bytes
+     */
+    public long getWeightBytes() {
+        long bytes = 0;
+        for (InferenceLayer layer : layers) {
+            bytes += layer.weightBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the largest difference between one of a layer's weights and
+     *         the trained weight, 0 at FLOAT32 (see WeightPrecision for what
+     *         this bounds)
+     */
+    public float getMaxWeightError(int layer) {
+        return layers[layer].maxWeightError();
+    }
+
+    InferenceLayer layer(int index) {
+        return layers[index];
+    }
+
+    long[] clamped() {
+        return clamped;
+    }
+
+} // end of class InferenceModel
@@ -0,0 +1,229 @@
+package rbm;
+
+import java.util.Arrays;
+
+/**
+ * One thread's view of an InferenceModel.  A session owns the unit states of
+ * every layer, the input clamps, scratch space for weighted sums and its own
+ * Sampler; the weights are read from the shared model.  Sessions are cheap
+ * to create and are not thread-safe: use one per thread (or per request).
+ *
+ * New sessions start with the clamps the network had when it was frozen.
+ */
+public final class InferenceSession {
+
+    private final InferenceModel model;
+    private final Sampler rand;
+    private final long[][] units;   // units[l] is layer l's visible layer
+    private final float[][] sums;
+    private final int[] offsets;    // row offsets for the sums of any layer
+    private final long[] clamped;
+    private final float[][] means;  // activations for MEAN_FIELD
+    private InferenceMode mode = InferenceMode.SAMPLED;
+
+    InferenceSession(InferenceModel model, Sampler rand) {
+        this.model = model;
+        this.rand = rand;
+        int numLayers = model.getNumLayers();
+        this.units = new long[numLayers + 1][];
+        this.sums = new float[numLayers + 1][];
+        this.means = new float[numLayers + 1][];
+        int widest = 0;
+        for (int l = 0; l <= numLayers; l++) {
+            int size = l < numLayers ? model.getNumVisible(l) : model.getNumHidden(l - 1);
+            widest = Math.max(widest, size);
+            units[l] = new long[Bits.words(size)];
+            sums[l] = new float[size];
+            means[l] = new float[size];
+            Bits.set(units[l], size - 1);  // bias is always on
+            means[l][size - 1] = 1;
+        }
+        this.offsets = new int[widest];
+        this.clamped = model.clamped().clone();
+    }
+
+
+    public InferenceModel getModel() {
+        return model;
+    }
+
+    /**
+     * @param seed - restarts this session's sampling from seed
+     */
+    public void setSeed(long seed) {
+        rand.setSeed(seed);
+    }
+
+    public InferenceMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode - whether later calls sample unit states or propagate
+     *               probabilities (see InferenceMode)
+     */
+    public void setMode(InferenceMode mode) {
+        this.mode = mode;
+    }
+
+    /*
+     * Method: clamp / unclamp / isClamped
+     *
+     * as on InputRBM, but private to this session; the bias stays clamped, and
+     * indices outside the inputs are ignored
+     */
+    public void clamp(int index) {
+        if (index >= 0 && index < model.getInputWidth()) {
+            Bits.set(clamped, index);
+        }
+    }
+
+    public void unclamp(int index) {
+        if (index >= 0 && index < model.getInputWidth()) {
+            Bits.clear(clamped, index);
+        }
+    }
+
+    public void unclampAll() {
+        for (int w = 0; w < clamped.length; w++) {
+            clamped[w] = 0;
+        }
+        Bits.set(clamped, model.getInputWidth());
+    }
+
+    public boolean isClamped(int index) {
+        return Bits.get(clamped, index);
+    }
+
+    void setClamps(long[] mask) {
+        System.arraycopy(mask, 0, clamped, 0, clamped.length);
+    }
+
+
+    /**
+     *
+     * @param seed - the starting input values
+     * @param numCycles - the number of up and down passes to perform
+     * @return the input layer after sampling, without the bias, as
+     *         SimpleLayeredRBM.layeredGenerate returns it.  In MEAN_FIELD
+     *         mode an input is on when its probability is at least 0.5.
+     */
+    public boolean[] generate(boolean[] seed, int numCycles) {
+        setInput(seed);
+        run(numCycles);
+        if (mode == InferenceMode.MEAN_FIELD) {
+            boolean[] generated = new boolean[model.getInputWidth()];
+            for (int i = 0; i < generated.length; i++) {
+                generated[i] = means[0][i] >= 0.5f;
+            }
+            return generated;
+        }
+        return Bits.unpack(units[0], model.getInputWidth());
+    }
+
+    /**
+     * Propagates an input up the stack once, without sampling, whatever the
+     * session's mode.
+     *
+     * @param input - the input values
+     * @return the top layer's hidden activation probabilities, without the
+     *         bias
+     */
+    public float[] features(boolean[] input) {
+        setInput(input);
+        int numLayers = model.getNumLayers();
+        for (int l = 0; l < numLayers; l++) {
+            model.layer(l).meanHidden(means[l], means[l + 1]);
+        }
+        return Arrays.copyOf(means[numLayers], means[numLayers].length - 1);
+    }
+
+    /**
+     * Like generate, but returns the activation probability of every input
+     * after the last pass instead of a sample, as InputRBM.predict does.
+     *
+     * @param seed - the starting input values
+     * @param numCycles - the number of up and down passes to perform
+     * @return one probability per input, without the bias
+     */
+    public float[] predict(boolean[] seed, int numCycles) {
+        setInput(seed);
+        return predict(numCycles, new float[model.getInputWidth()]);
+    }
+
+    /**
+     *
+     * @param seed - the starting input values, packed (see Bits); bits at or
+     *               beyond the input width are ignored
+     * @param numCycles - the number of up and down passes to perform
+     * @param out - receives one probability per input
+     * @return out
+     */
+    public float[] predict(long[] seed, int numCycles, float[] out) {
+        setInput(seed);
+        return predict(numCycles, out);
+    }
+
+
+    private float[] predict(int numCycles, float[] out) {
+        run(numCycles);
+        InferenceLayer input = model.layer(0);
+        float[] probabilities = sums[0];
+        if (mode == InferenceMode.MEAN_FIELD) {
+            input.visibleSums(means[1], probabilities);
+        } else {
+            input.visibleSums(units[1], probabilities, offsets);
+        }
+        input.sigmoid.apply(probabilities, out, out.length, 1);
+        return out;
+    }
+
+    // the same passes as SimpleLayeredRBM.layeredGenerate
+    private void run(int numCycles) {
+        int numLayers = model.getNumLayers();
+        if (mode == InferenceMode.MEAN_FIELD) {
+            for (int cycle = 0; cycle < numCycles; cycle++) {
+                for (int l = 0; l < numLayers; l++) {
+                    model.layer(l).meanHidden(means[l], means[l + 1]);
+                }
+                for (int l = numLayers; l > 0; --l) {
+                    model.layer(l - 1).meanVisible(means[l], means[l - 1],
+                            l == 1 ? clamped : null, sums[l - 1]);
+                }
+            }
+            return;
+        }
+        for (int cycle = 0; cycle < numCycles; cycle++) {
+            for (int l = 0; l < numLayers; l++) {
+                model.layer(l).sampleHidden(units[l], units[l + 1], sums[l + 1], offsets, rand);
+            }
+            for (int l = numLayers; l > 0; --l) {
+                model.layer(l - 1).sampleVisible(units[l], units[l - 1],
+                        l == 1 ? clamped : null, sums[l - 1], offsets, rand);
+            }
+        }
+    }
+
+    private void setInput(boolean[] seed) {
+        int width = model.getInputWidth();
+        for (int i = 0; i < width; i++) {
+            boolean value = i < seed.length && seed[i];
+            Bits.set(units[0], i, value);
+            means[0][i] = value ? 1 : 0;
+        }
+    }
+
+    private void setInput(long[] seed) {
+        int width = model.getInputWidth();
+        long[] input = units[0];
+        for (int w = 0; w < input.length; w++) {
+            input[w] = w < seed.length ? seed[w] : 0;
+        }
+        input[width >>> 6] &= (1L << width) - 1;  // clears the bias word's tail
+        Bits.set(input, width);
+        for (int i = 0; i < width; i++) {
+            means[0][i] = Bits.get(input, i) ? 1 : 0;
+        }
+    }
+
+} // end of class InferenceSession
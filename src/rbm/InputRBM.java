@@ -1,35 +1,43 @@
 package rbm;
 
-import java.util.Random;
 import java.io.Serializable;
 
 public class InputRBM extends SimpleRBM implements Serializable{
 
-	private static final long serialVersionUID = 5035486678274163394L;
-	
-	Node[] visibleNodes;
-    transient Random rand = new Random();
+	// changed when clampedNodes became packed
+	private static final long serialVersionUID = -8039347970089996263L;
+
+	// packed flags, one per visible node; clamped nodes keep their value
+	// when the visible layer is activated
+	long[] clampedNodes;
 
     /*
       * Constructor for InputRBM
       */
     public InputRBM(int numVisibleNodes, int numHiddenNodes){
-        super(numVisibleNodes, numHiddenNodes);
-        super.visibleNodes = null;   // we use our own, any use of the other
-                                     // will be an error
+        this(numVisibleNodes, numHiddenNodes, new XoroshiroSampler());
+    }
 
-        this.visibleNodes = new Node[numVisibleNodes + 1];
-        for(int i = 0; i < visibleNodes.length; i++){
-            visibleNodes[i] = new Node(false, false);
-        }
+    public InputRBM(int numVisibleNodes, int numHiddenNodes, Sampler rand){
+        super(numVisibleNodes, numHiddenNodes, rand);
+
+        this.clampedNodes = new long[visibleNodes.length];
 
         // bias nodes are always 1
-        visibleNodes[ visibleNodes.length - 1 ].setValue(true);
-        visibleNodes[ visibleNodes.length - 1 ].clamped = true;
+        Bits.set(clampedNodes, numVisible - 1);
 
 
     } // end of constructor
 
+    /*
+     * Constructor: rebuilds a first layer around existing weights and clamps
+     * (see ModelFile)
+     */
+    InputRBM(int numVisible, int numHidden, float[] weights, long[] clampedNodes, Sampler rand){
+        super(null, numVisible, numHidden, weights, rand);
+        this.clampedNodes = clampedNodes;
+    }
+
     /**
      *
      * @param startIndex - the index to start clamping at, inclusive
@@ -41,10 +49,10 @@ public class InputRBM extends SimpleRBM implements Serializable{
      */
     public void clamp(int startIndex, int endIndex){
         for(int i = startIndex; i < endIndex; i++){
-            if(i >= visibleNodes.length || i < 0)
+            if(i >= numVisible || i < 0)
                 continue;
 
-            visibleNodes[i].clamped = true;
+            Bits.set(clampedNodes, i);
         }
     } // end of method clamp
 
@@ -56,10 +64,10 @@ public class InputRBM extends SimpleRBM implements Serializable{
      * Sets the clamp for a single index
      */
     public void clamp(int index){
-        if(index >= visibleNodes.length)
+        if(index >= numVisible)
             return;
 
-        visibleNodes[index].clamped = true;
+        Bits.set(clampedNodes, index);
     } // end of method clamp
 
     /**
@@ -71,10 +79,10 @@ public class InputRBM extends SimpleRBM implements Serializable{
      */
     public void unclamp(int startIndex, int endIndex){
         for(int i = startIndex; i < endIndex; i++){
-            if(i >= visibleNodes.length || i < 0)
+            if(i >= numVisible || i < 0)
                 continue;
 
-            visibleNodes[i].clamped = false;
+            Bits.clear(clampedNodes, i);
         }
     } // end of method clamp
 
@@ -86,10 +94,10 @@ public class InputRBM extends SimpleRBM implements Serializable{
      * Releases the clamp for a single index
      */
     public void unclamp(int index){
-        if(index >= visibleNodes.length)
+        if(index >= numVisible)
             return;
 
-        visibleNodes[index].clamped = false;
+        Bits.clear(clampedNodes, index);
     } // end of method clamp
 
 
@@ -98,51 +106,39 @@ public class InputRBM extends SimpleRBM implements Serializable{
      * Unclamps all nodes in the visible layer.
      */
     public void unclampAll(){
-        for(Node n: this.visibleNodes){
-            n.clamped = false;
+        for(int w = 0; w < clampedNodes.length; w++){
+            clampedNodes[w] = 0;
         }
     }
 
-
     /**
-     * Probabilistically activates each node in the visible layer based upon
-     * the weighted sum accumulated from the hidden layer.
+     *
+     * @param index - the visible node to check
+     * @return - whether that node is currently clamped
      */
-    @Override
-    public void activateVisible()
-    {
-        for (int i=0; i<visibleNodes.length; ++i){
-            if(visibleNodes[i].clamped == false){
-                //computed weighted sum
-                float sum = computeVisibleWeightedSum(i);
-
-                //(call logsig function with annealing rate set to 1)
-                // activate with that probability
-               visibleNodes[i].setValue((this.rand.nextDouble() < logsig(sum, 1)));
-       
-
-            }
-        }
+    public boolean isClamped(int index){
+        return Bits.get(clampedNodes, index);
     }
 
+
     /**
-     * Probabilistically activates each node in the hidden layer based upon
-     * the weighted sum accumulated from the visible layer.
+     * Probabilistically activates each node in the visible layer based upon
+     * the weighted sum accumulated from the hidden layer.  Clamped nodes keep
+     * whatever value visible already holds.
      */
     @Override
-    public void activateHidden()
+    public void sampleVisible(long[] hidden, long[] visible, float[] sums, int[] offsets,
+            Sampler rand)
     {
-        for (int i=0; i<hiddenNodes.length-1; ++i)
-        {
-            //compute weighted sum
-            float sum = 0;
-            for (int j=0; j<visibleNodes.length; ++j)
-                if (visibleNodes[j].value)
-                    sum += weights[j][i];
-
-            //Probabilistically activate node based on sigmoid computation
-            hiddenNodes[i] = (rand.nextDouble() < logsig(sum, annealingRate));
-
+        computeVisibleSums(hidden, sums, offsets);
+        //(call logsig function with annealing rate set to 1)
+        logsig(sums, sums, numVisible, 1);
+        float[] uniforms = rand.uniforms(numVisible);
+        for (int i=0; i<numVisible; ++i){
+            if(!Bits.get(clampedNodes, i)){
+                // activate with that probability
+                Bits.set(visible, i, uniforms[i] < sums[i]);
+            }
         }
     }
 
@@ -153,7 +149,7 @@ public class InputRBM extends SimpleRBM implements Serializable{
      * probability of activation. Once one bit is chosen, all other bits in the
      * group are set to 0.
      */
-   
+
     /**
      *
      * @param probabilities - the array of probabilities that define a distribution
@@ -179,33 +175,7 @@ public class InputRBM extends SimpleRBM implements Serializable{
             lastValue = probabilities[i];
         }
     }
-    
 
- 
-    /**
-     * Method: accumulatePos / accumulateNeg
-     *
-     * Increments positive/negative weight change matrices by product of input
-     * node states and hidden node states
-     *
-     */
-    @Override
-    protected void accumulatePos()
-    {
-        for (int i=0; i<visibleNodes.length; ++i)
-            if (visibleNodes[i].value)
-                for (int j=0; j<hiddenNodes.length; ++j)
-                    dPos[i][j] += hiddenNodes[j] ? 1 : 0;
-    }
-
-    @Override
-    protected void accumulateNeg()
-    {
-        for (int i=0; i<visibleNodes.length; ++i)
-            if (visibleNodes[i].value)
-                for (int j=0; j<hiddenNodes.length; ++j)
-                    dNeg[i][j] += hiddenNodes[j] ? 1 : 0;
-    }
 
     /**
      *
@@ -214,30 +184,15 @@ public class InputRBM extends SimpleRBM implements Serializable{
     @Override
     public void setInput(boolean[] newInput){
 
-        for (int i=0; i < newInput.length; i++)
+        //modify the bits directly in order to reset clamped nodes;
+        //the bias is left alone
+        for (int i=0; i < newInput.length && i < numVisible - 1; i++)
         {
-            //modify value directly (rather than using setValue)
-            //in order to reset clamped nodes
-            this.visibleNodes[i].value = newInput[i];
+            Bits.set(visibleNodes, i, newInput[i]);
         }
 
     } // end of method setInput
 
-    /**
-     *
-     * @return - an int[] copy of the state of the visible layer
-     */
-    @Override
-    public boolean[] getVisible(){
-        boolean[] visbools = new boolean[this.visibleNodes.length];
-
-        for(int i = 0; i < this.visibleNodes.length; i++){
-            visbools[i] = this.visibleNodes[i].value;
-        }
-
-        return visbools;
-    }
-
     /**
      *
      * @param numRows - the number of rows in the diagram
@@ -247,56 +202,11 @@ public class InputRBM extends SimpleRBM implements Serializable{
      */
     //@Override
     public float[] predict() {
-    	float currSum;
-        float[] probs = new float[this.visibleNodes.length];
-        for (int visIndex = 0; visIndex < probs.length; visIndex++) {
-                currSum = computeVisibleWeightedSum(visIndex);
-                probs[visIndex] = logsig(currSum, 1);
-            }
+        computeVisibleSums();
+        float[] probs = new float[numVisible];
+        logsig(visibleSums, probs, numVisible, 1);
         return probs;
     }
 
-    /**
-     *
-     * @return - the current energy state of the machine
-     */
-    @Override
-    public float getEnergy()
-    {
-    	int vn;
-    	int hn;
-        float energy = 0;
-        for (int i=0; i<visibleNodes.length; ++i)
-            for (int j=0; j<hiddenNodes.length; ++j){
-            	vn = visibleNodes[i].value ? 1 : 0;
-        		hn = hiddenNodes[j] ? 1 : 0;
-                energy -= vn*hn*weights[i][j];
-            }
-        return energy;
-    }
-
-
-    // class for clamped, unclamped inputs
-    // (basically a tuple)
-    class Node{
-        public boolean value;
-        public boolean clamped;
-
-        public Node(boolean value, boolean clamped){
-            this.value = value;
-            this.clamped = clamped;
-        }
-
-        public void setValue(boolean v){
-            if(this.clamped == false)
-                this.value = v;
-        }
-
-        @Override
-        public String toString(){
-            return "Value: "+value+" Clamped: "+clamped;
-        }
-    }  // end of class Node
-
 
 } // end class inputRBM
@@ -0,0 +1,176 @@
+package rbm;
+
+/*
+ * Class: Kernels
+ *
+ * The inner loops over rows of weights that the layers and trainers spend
+ * their time in: adding whole rows and summing the rows picked by a packed
+ * bitset (the weighted sums), adding to the entries of a row picked by a
+ * packed bitset (the outer products of contrastive divergence), the per-row
+ * weight updates of each UpdateRule, and the row sums over the int8 and
+ * fp16 weights of quantized InferenceLayers.
+ *
+ * INSTANCE is picked once, when the class is loaded.  If the JVM was started
+ * with --add-modules jdk.incubator.vector it is VectorKernels, which runs the
+ * loops on the widest SIMD registers the machine has; otherwise, or with
+ * -Drbm.kernels=scalar, it is ScalarKernels, plain loops.  VectorKernels is
+ * only loaded by name, so without the module nothing refers to it.
+ *
+ * Both do the same arithmetic in the same order on every element, so
+ * training gives the same weights with either.  The one exception is
+ * maskedSum, which VectorKernels adds up lane by lane; its result can differ
+ * in the last bits.
+ */
+abstract class Kernels {
+
+    static final Kernels INSTANCE = load();
+
+    private static Kernels load() {
+        if (!"scalar".equals(System.getProperty("rbm.kernels"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Kernels) Class.forName("rbm.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the scalar loops
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /*
+     * Method: name
+     *
+     * "vector" or "scalar", with the vector width
+     */
+    abstract String name();
+
+    /*
+     * Method: addRow
+     *
+     * dst[k] += src[from + k] for k in [0, n)
+     */
+    abstract void addRow(float[] src, int from, float[] dst, int n);
+
+    /*
+     * Method: sumRows
+     *
+     * dst[k] = the sum of src[r * stride + k] over the set bits r of rows, in
+     * increasing order of r, for k in [0, n): the weighted sums from packed
+     * unit states, giving exactly what filling dst with 0 and calling addRow
+     * for each row in turn would.  offsets is the caller's scratch space,
+     * with room for an entry per set bit of rows.
+     */
+    abstract void sumRows(float[] src, int stride, long[] rows, int[] offsets, float[] dst,
+            int n);
+
+    /*
+     * Method: sumRows
+     *
+     * sumRows for each of rows[from] to rows[to - 1] at once, into dst[from]
+     * to dst[to - 1]: each gets exactly the sums sumRows gives it alone.  src
+     * is taken 64 rows (one word of the bitsets) at a time, and every one of
+     * the bitsets adds the rows it has set among them before the next 64 are
+     * touched, so a src too big for the cache is read from memory once for
+     * the lot rather than once for each.
+     */
+    abstract void sumRows(float[] src, int stride, long[][] rows, int from, int to,
+            float[][] dst, int n);
+
+    /*
+     * Method: addScaledRow
+     *
+     * dst[k] += scale * src[from + k] for k in [0, n)
+     */
+    abstract void addScaledRow(float[] src, int from, float scale, float[] dst, int n);
+
+    /*
+     * Method: addScaledRow / addScaledHalfRow
+     *
+     * the same over a row of int8 values, or of fp16 values held in shorts
+     * (see halfToFloat)
+     */
+    abstract void addScaledRow(byte[] src, int from, float scale, float[] dst, int n);
+
+    abstract void addScaledHalfRow(short[] src, int from, float scale, float[] dst, int n);
+
+    /*
+     * Method: maskedSum
+     *
+     * the sum of src[from + k] over the set bits k < n of mask
+     */
+    abstract float maskedSum(float[] src, int from, long[] mask, int n);
+
+    /*
+     * Method: addMasked
+     *
+     * dst[from + k] += amount for the set bits k < n of mask
+     */
+    abstract void addMasked(float[] dst, int from, long[] mask, int n, float amount);
+
+    /*
+     * Method: sgdRow
+     *
+     * SGD on the n weights from from: w += rate * pos / numInputs, then
+     * w -= rate * neg / numInputs, then w -= decay * w (skipped when decay is
+     * 0).  Clears pos and neg.
+     */
+    abstract void sgdRow(float[] w, float[] pos, float[] neg, int from, int n, float rate,
+            int numInputs, float decay);
+
+    /*
+     * Method: momentumRow
+     *
+     * MOMENTUM on the n weights from from: v = momentum * v
+     * + scale * (pos - neg) - decay * w; w += v.  Clears pos and neg.
+     */
+    abstract void momentumRow(float[] w, float[] v, float[] pos, float[] neg, int from, int n,
+            float momentum, float scale, float decay);
+
+    /*
+     * Method: adamRow
+     *
+     * ADAM on the n weights from from, with gradient
+     * g = (pos - neg) * inverse - decay * w and the moments m and s decayed
+     * by beta1 and beta2: w += step * m / (sqrt(s) + epsilon).  Clears pos
+     * and neg.
+     */
+    abstract void adamRow(float[] w, float[] m, float[] s, float[] pos, float[] neg, int from,
+            int n, float beta1, float beta2, float epsilon, float step, float inverse,
+            float decay);
+
+    /*
+     * Method: floatToHalf
+     *
+     * the IEEE fp16 value nearest to f (ties to even), as its bits.  Values
+     * beyond the largest fp16 value, 65504, are clamped to it, so no
+     * infinities are made; values below 2^-14 become subnormals.
+     */
+    static short floatToHalf(float f) {
+        int sign = (Float.floatToRawIntBits(f) >>> 16) & 0x8000;
+        float abs = Math.min(Math.abs(f), 65504f);
+        if (abs < 0x1p-14f) {
+            // subnormal: a multiple of 2^-24, rounding up into the smallest
+            // normal value if need be
+            return (short) (sign | (int) Math.rint(abs * 0x1p24f));
+        }
+        int bits = Float.floatToRawIntBits(abs);
+        // round the mantissa to 10 bits, ties to even; a carry moves into
+        // the exponent, as it should
+        bits += 0xfff + ((bits >>> 13) & 1);
+        return (short) (sign | ((bits >>> 13) - ((127 - 15) << 10)));
+    }
+
+    /*
+     * Method: halfToFloat
+     *
+     * the float value of fp16 bits made by floatToHalf.  Moved into place,
+     * the bits are a float with the same mantissa and an exponent 112 too
+     * small (a subnormal one for fp16 subnormals), so scaling by 2^112 is
+     * exact and needs no special cases.
+     */
+    static float halfToFloat(short half) {
+        return Float.intBitsToFloat(((half & 0x8000) << 16) | ((half & 0x7fff) << 13))
+                * 0x1p112f;
+    }
+}
@@ -0,0 +1,420 @@
+package rbm;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Class: MiniBatchTrainer
+ *
+ * Greedy layer-wise training of a stack of RBMs with mini-batch contrastive
+ * divergence.  Every epoch the inputs are shuffled and cut into batches; each
+ * batch is propagated up to the layer being trained, run through CD-k, and
+ * the accumulated statistics are applied in a single pass of the layer's
+ * Optimizer.
+ * Inputs come from a DataSource through a RowFeed, so only one batch of
+ * inputs (plus the feed's shuffle window) needs to be in memory.
+ *
+ * With more than one thread a batch is split into contiguous chunks, one per
+ * worker.  Each worker has its own accumulators, scratch rows and Sampler,
+ * reseeded from the trainer's Sampler before every batch, and the workers'
+ * statistics are summed pairwise up a fixed tree into the layer's dPos/dNeg.
+ * The result therefore depends only on the seed and the thread count, not on
+ * how the pool schedules the work.
+ *
+ * With persistent chains configured (PCD) the negative phase does not restart
+ * from the batch.  A pool of packed fantasy chains, seeded from random inputs
+ * when the layer's training starts, is advanced gibbsSteps per batch and
+ * split across the workers like the batch rows.  Their statistics are scaled
+ * by batch size / pool size to balance the positive phase.
+ *
+ * With a cache mode configured, each trained layer transforms the data set
+ * once into a RepresentationCache that the next layer trains from, so
+ * inputs are no longer pushed through every lower layer on every epoch.
+ *
+ * With early stopping or a validation split configured, an EpochSchedule
+ * decides how many epochs each layer runs and sets its annealing rate.
+ *
+ * Weight changes are divided by the number of inputs, as before, so the
+ * total movement per epoch does not depend on the batch size.
+ *
+ * With a checkpoint file configured, a Checkpointer saves the run between
+ * epochs.  Given the TrainingProgress of such a checkpoint, train skips the
+ * layers that were finished, rebuilding their caches from the generator
+ * states the progress recorded, and restores the layer in training, its
+ * schedule, optimizer, chains, input order and generator, so the run goes
+ * on as if it had never stopped.
+ */
+class MiniBatchTrainer {
+
+    private final SimpleRBM[] layers;
+    private final TrainingConfig config;
+    private final XoroshiroSampler rand;
+    private final long seed;
+    private final TrainingMonitor monitor;
+    private final Checkpointer checkpointer;
+    private final TrainingProgress resume;   // null for a new run
+
+    private RowFeed feed;
+    private int numInputs;
+    private int base;          // the layer the feed's rows are inputs to
+    private EpochSchedule schedule;
+    private int numEpochs;
+    private long[][] layerStarts;   // the generator before each layer's set-up
+    private RepresentationCache cache;
+    private int[][] inputReads;     // each layer's input cache's read counts as it finished
+
+    // per-layer state, set up by trainLayer
+    private long[][] staged;   // inputs to layer base of the current batch
+    private long[][] visible;
+    private long[][] hidden;
+    private CDWorker[] workers;
+    private Optimizer optimizer;
+    private Propagator[] propagators;
+    private long[][] chainVisible;  // persistent chains, or null for plain CD
+    private long[][] chainHidden;
+    private int batchLength;
+
+    MiniBatchTrainer(SimpleRBM[] layers, TrainingConfig config) {
+        this(layers, config, null);
+    }
+
+    /**
+     * @param resume - where a checkpointed run stopped, or null to start
+     */
+    MiniBatchTrainer(SimpleRBM[] layers, TrainingConfig config, TrainingProgress resume) {
+        if (resume != null && resume.trainer != TrainingProgress.MINI_BATCH) {
+            throw new IllegalArgumentException("the checkpoint was taken by the asynchronous "
+                    + "trainer");
+        }
+        this.layers = layers;
+        this.config = config;
+        this.resume = resume;
+        if (resume != null) {
+            this.seed = resume.seed;
+        } else {
+            this.seed = config.getSeed() == null ? new XoroshiroSampler().nextLong() : config.getSeed();
+        }
+        this.rand = new XoroshiroSampler(seed);
+        this.monitor = new TrainingMonitor(config);
+        this.checkpointer = new Checkpointer(config);
+    }
+
+    /**
+     * @param source - the first-layer inputs, without the bias
+     * @param numEpochs - the number of passes over inputs for each layer, or
+     *                    the most there can be with early stopping
+     */
+    void train(DataSource source, int numEpochs) throws IOException {
+        HoldoutSplit split = HoldoutSplit.create(source, config, rand);
+        this.schedule = new EpochSchedule(layers, config, split, numEpochs, rand);
+        this.numEpochs = numEpochs;
+        this.layerStarts = new long[layers.length][];
+        this.inputReads = new int[layers.length][];
+        source = split.training();
+        if (config.isVisibleBiasesFromData() && resume == null) {
+            layers[0].initVisibleBiases(source);
+        }
+        this.feed = RowFeed.create(source, config);
+        this.numInputs = (int) Math.min(Integer.MAX_VALUE, source.size());
+        this.base = 0;
+        ForkJoinPool pool = config.getThreads() > 1 ? new ForkJoinPool(config.getThreads()) : null;
+        this.cache = null;
+        try {
+            for (int currLayer = 0; currLayer < layers.length; currLayer++) {
+                if (resume != null && currLayer <= resume.layer) {
+                    rand.setState(resume.layerStarts[currLayer]);
+                }
+                layerStarts[currLayer] = rand.getState();
+                if (currLayer > 0 && config.getCacheMode() != CacheMode.NONE) {
+                    if (cache != null) {
+                        inputReads[currLayer - 1] = cache.getReads();
+                    }
+                    RepresentationCache next = RepresentationCache.build(
+                            cache == null ? source : cache, layers[currLayer - 1], config, rand);
+                    feed.close();
+                    if (cache != null) {
+                        cache.close();
+                    }
+                    cache = next;
+                    feed = RowFeed.create(cache, config);
+                    base = currLayer;
+                    if (resume != null && currLayer <= resume.layer) {
+                        cache.setReads(resume.reads == null ? null : resume.reads[currLayer]);
+                    }
+                }
+                if (resume == null || currLayer >= resume.layer) {
+                    trainLayer(currLayer, numEpochs, pool,
+                            resume != null && currLayer == resume.layer);
+                }
+            }
+            checkpointer.close();
+        } finally {
+            feed.close();
+            if (cache != null) {
+                cache.close();
+            }
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void trainLayer(int currLayer, int numEpochs, ForkJoinPool pool, boolean resuming)
+            throws IOException {
+        SimpleRBM rbm = layers[currLayer];
+        int batchSize = Math.max(1, Math.min(config.getBatchSize(), numInputs));
+        int threads = config.getThreads();
+
+        staged = new long[batchSize][Bits.words(layers[base].getNumVisible())];
+        visible = new long[batchSize][Bits.words(rbm.getNumVisible())];
+        hidden = new long[batchSize][Bits.words(rbm.getNumHidden())];
+        workers = new CDWorker[threads];
+        propagators = new Propagator[threads];
+        for (int t = 0; t < threads; t++) {
+            // worker 0 accumulates straight into the layer; the others are
+            // folded into it by BatchTask
+            float[] pos = (t == 0) ? rbm.dPos : new float[rbm.dPos.length];
+            float[] neg = (t == 0) ? rbm.dNeg : new float[rbm.dNeg.length];
+            workers[t] = new CDWorker(rbm, pos, neg, new XoroshiroSampler());
+            propagators[t] = new Propagator(layers, base, currLayer);
+        }
+
+        optimizer = new Optimizer(rbm, config);
+        schedule.startLayer(currLayer);
+        if (resuming) {
+            restore();
+        } else {
+            initChains(rbm, config.getPersistentChains());
+        }
+        monitor.layerStarted(currLayer, numEpochs);
+
+        while (schedule.next()) {
+            int epoch = schedule.epoch();
+            rbm.setAnnealingRate(schedule.annealingRate());
+            optimizer.startEpoch(epoch);
+
+            monitor.epochStarted();
+            boolean measuring = monitor.isActive() && chainVisible == null;
+            for (CDWorker worker : workers) {
+                worker.resetMeasurements();
+                if (!measuring) {
+                    worker.data = null;
+                } else if (worker.data == null) {
+                    worker.data = new long[batchSize][visible[0].length];
+                }
+            }
+            long samples = 0;
+            long updateNanos = 0;
+
+            feed.startEpoch(rand);
+            while (true) {
+                batchLength = 0;
+                while (batchLength < batchSize && feed.next(staged[batchLength])) {
+                    batchLength++;
+                }
+                if (batchLength == 0) {
+                    break;
+                }
+                for (CDWorker worker : workers) {
+                    worker.rand.setSeed(rand.nextLong());
+                }
+
+                BatchTask task = new BatchTask(0, threads);
+                if (pool == null) {
+                    task.compute();
+                } else {
+                    pool.invoke(task);
+                }
+                long start = System.nanoTime();
+                optimizer.update(batchLength, numInputs, workers[0].touched);
+                updateNanos += System.nanoTime() - start;
+                samples += batchLength;
+            }
+
+            long positiveNanos = 0;
+            long gibbsNanos = 0;
+            double error = 0;
+            for (CDWorker worker : workers) {
+                positiveNanos += worker.positiveNanos;
+                gibbsNanos += worker.gibbsNanos;
+                updateNanos += worker.updateNanos;
+                error += worker.reconstructionError;
+            }
+            double convergence = schedule.epochFinished();
+            monitor.epochFinished(currLayer, epoch, samples, positiveNanos, gibbsNanos,
+                    updateNanos, error, measuring ? samples : 0, convergence, rbm);
+            if (checkpointer.epochFinished()) {
+                checkpointer.save(layers, progress(currLayer));
+            }
+        }
+        monitor.layerFinished(currLayer);
+    }
+
+    /*
+     * Method: progress
+     *
+     * copies out where training stands, between epochs of layer
+     */
+    private TrainingProgress progress(int layer) {
+        TrainingProgress progress = new TrainingProgress();
+        progress.trainer = TrainingProgress.MINI_BATCH;
+        progress.numEpochs = numEpochs;
+        progress.seed = seed;
+        progress.layer = layer;
+        progress.schedule = schedule.getState();
+        progress.steps = optimizer.getSteps();
+        progress.rand = rand.getState();
+        progress.layerStarts = Arrays.copyOf(layerStarts, layer + 1);
+        int[] order = feed.getOrder();
+        progress.order = order == null ? null : order.clone();
+        if (chainVisible != null) {
+            progress.chainVisible = copy(chainVisible);
+            progress.chainHidden = copy(chainHidden);
+        }
+        float[] velocity = optimizer.getVelocity();
+        float[] meanSquare = optimizer.getMeanSquare();
+        progress.velocity = velocity == null ? null : velocity.clone();
+        progress.meanSquare = meanSquare == null ? null : meanSquare.clone();
+        int[] reads = cache == null ? null : cache.getReads();
+        if (reads != null) {
+            progress.reads = Arrays.copyOf(inputReads, layer + 1);
+            progress.reads[layer] = reads;
+        }
+        return progress;
+    }
+
+    /*
+     * Method: restore
+     *
+     * puts the layer in training back as the checkpoint found it
+     */
+    private void restore() {
+        if ((resume.chainVisible == null ? 0 : resume.chainVisible.length)
+                != config.getPersistentChains()) {
+            throw new IllegalArgumentException("the checkpoint was taken with a different "
+                    + "number of persistent chains");
+        }
+        chainVisible = resume.chainVisible;
+        chainHidden = resume.chainHidden;
+        optimizer.restore(resume.velocity, resume.meanSquare, resume.steps);
+        schedule.setState(resume.schedule);
+        feed.setOrder(resume.order);
+        rand.setState(resume.rand);
+    }
+
+    private static long[][] copy(long[][] rows) {
+        long[][] copy = new long[rows.length][];
+        for (int r = 0; r < rows.length; r++) {
+            copy[r] = rows[r].clone();
+        }
+        return copy;
+    }
+
+    /*
+     * Method: initChains
+     *
+     * starts each persistent chain from an input propagated up to the layer
+     * being trained, taking inputs from the start of a shuffled pass
+     */
+    private void initChains(SimpleRBM rbm, int numChains) throws IOException {
+        if (numChains == 0) {
+            chainVisible = null;
+            chainHidden = null;
+            return;
+        }
+        chainVisible = new long[numChains][Bits.words(rbm.getNumVisible())];
+        chainHidden = new long[numChains][Bits.words(rbm.getNumHidden())];
+        feed.startEpoch(rand);
+        for (int c = 0; c < numChains; c++) {
+            if (!feed.next(staged[0])) {
+                feed.startEpoch(rand);
+                feed.next(staged[0]);
+            }
+            propagators[0].propagate(staged[0], chainVisible[c], rand);
+            rbm.sampleHidden(chainVisible[c], chainHidden[c], workers[0].hiddenSums,
+                    workers[0].offsets, rand);
+        }
+    }
+
+    /*
+     * Class: BatchTask
+     *
+     * Runs workers [lo, hi) on their share of the current batch and leaves
+     * the sum of their statistics in worker lo's accumulators.
+     */
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+
+        BatchTask(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                runWorker(lo);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            BatchTask left = new BatchTask(lo, mid);
+            left.fork();
+            new BatchTask(mid, hi).compute();
+            left.join();
+            long start = System.nanoTime();
+            merge(workers[lo], workers[mid]);
+            workers[lo].updateNanos += System.nanoTime() - start;
+        }
+
+        private void runWorker(int t) {
+            int from = (int) ((long) batchLength * t / workers.length);
+            int to = (int) ((long) batchLength * (t + 1) / workers.length);
+            CDWorker worker = workers[t];
+            long start = System.nanoTime();
+            for (int b = from; b < to; b++) {
+                propagators[t].propagate(staged[b], visible[b], worker.rand);
+            }
+            worker.positiveNanos += System.nanoTime() - start;
+            if (chainVisible == null) {
+                worker.run(visible, hidden, from, to, config.getGibbsSteps());
+                return;
+            }
+            int chainFrom = (int) ((long) chainVisible.length * t / workers.length);
+            int chainTo = (int) ((long) chainVisible.length * (t + 1) / workers.length);
+            start = System.nanoTime();
+            worker.positive(visible, hidden, from, to);
+            long mid = System.nanoTime();
+            worker.gibbs(chainVisible, chainHidden, chainFrom, chainTo, config.getGibbsSteps());
+            worker.negative(chainVisible, chainHidden, chainFrom, chainTo,
+                    (float) batchLength / chainVisible.length);
+            worker.positiveNanos += mid - start;
+            worker.gibbsNanos += System.nanoTime() - mid;
+        }
+
+        // adds src's statistics into dst and clears src for the next batch;
+        // only the rows src touched can be non-zero
+        private void merge(CDWorker dst, CDWorker src) {
+            int numHidden = dst.rbm.getNumHidden();
+            for (int w = 0; w < src.touched.length; w++) {
+                long word = src.touched[w];
+                dst.touched[w] |= word;
+                src.touched[w] = 0;
+                while (word != 0) {
+                    int row = ((w << 6) + Long.numberOfTrailingZeros(word)) * numHidden;
+                    word &= word - 1;
+                    for (int i = row; i < row + numHidden; i++) {
+                        dst.pos[i] += src.pos[i];
+                        dst.neg[i] += src.neg[i];
+                        src.pos[i] = 0;
+                        src.neg[i] = 0;
+                    }
+                }
+            }
+        }
+    }
+}
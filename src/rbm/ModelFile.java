@@ -0,0 +1,653 @@
+package rbm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact, versioned binary format for trained SimpleLayeredRBMs, read
+ * back through memory maps.
+ *
+ * File layout, all little-endian:
+ *
+ *   offset  0  int    magic "RBMM"
+ *   offset  4  int    format version (1)
+ *   offset  8  int    number of layers
+ *   offset 12  int    flags; bit 0 is set when training state is present
+ *   offset 16         one 48 byte header per layer:
+ *                       int   type (0 SimpleRBM, 1 InputRBM)
+ *                       int   visible units, including the bias
+ *                       int   hidden units, including the bias
+ *                       float annealing rate
+ *                       int   sigmoid (Sigmoid ordinal)
+ *                       int   reserved, 0
+ *                       long  offset of the weights
+ *                       long  offset of the clamp mask, or 0
+ *                       long  offset of the training state, or 0
+ *
+ * Every section starts on a 64 byte boundary.  Weights are row-major float32,
+ * weights[i * hidden + j] as in SimpleRBM; the clamp mask is one bit per
+ * visible unit packed into longs (see Bits).  The training state is an int
+ * count followed by that many tagged arrays (int tag, int length, then
+ * length 4-byte values); readers skip tags they do not know, so state can be
+ * added without a new version.  The accumulated statistics are floats; the
+ * entries of a checkpoint (see Checkpointer) add the optimizer's per-weight
+ * state, as floats, and the trainer's position, as ints.
+ *
+ * load() copies the weights straight from the mapping into the network's
+ * arrays, with no per-value decoding and no object graph to rebuild; a
+ * trainable network needs them on the heap.  open() keeps the mapping
+ * instead and exposes each layer's weights as a read-only FloatBuffer, and
+ * toInferenceModel() scores straight from those buffers, so a scoring
+ * process copies nothing and starts as soon as the file is mapped.
+ */
+public class ModelFile implements Closeable {
+
+    public static final int MAGIC = 0x4d4d4252;   // "RBMM" read little-endian
+    public static final int VERSION = 1;
+
+    static final int FLAG_TRAINING_STATE = 1;
+
+    static final int TYPE_RBM = 0;
+    static final int TYPE_INPUT = 1;
+
+    // training state tags
+    static final int STATE_POSITIVE = 1;   // SimpleRBM.dPos
+    static final int STATE_NEGATIVE = 2;   // SimpleRBM.dNeg
+    static final int STATE_VELOCITY = 3;   // Optimizer's velocity or first moment
+    static final int STATE_MEAN_SQUARE = 4;   // Optimizer's second moment
+    static final int STATE_PROGRESS = 5;   // TrainingProgress, on the layer in training
+    static final int STATE_ORDER = 6;      // the trainer's input order
+    static final int STATE_CHAINS = 7;     // persistent chains
+    static final int STATE_READS = 8;      // probability caches' read counts
+
+    private static final int HEADER_SIZE = 16;
+    private static final int LAYER_HEADER_SIZE = 48;
+    private static final int ALIGNMENT = 64;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final String filename;
+    private final int flags;
+    private final int[] types;
+    private final int[] numVisible;
+    private final int[] numHidden;
+    private final float[] annealingRates;
+    private final Sigmoid[] sigmoids;
+    private final long[] weightOffsets;
+    private final long[] clampOffsets;
+    private final long[] stateOffsets;
+
+    private ModelFile(FileChannel channel, String filename, int flags, int numLayers) {
+        this.channel = channel;
+        this.filename = filename;
+        this.flags = flags;
+        this.types = new int[numLayers];
+        this.numVisible = new int[numLayers];
+        this.numHidden = new int[numLayers];
+        this.annealingRates = new float[numLayers];
+        this.sigmoids = new Sigmoid[numLayers];
+        this.weightOffsets = new long[numLayers];
+        this.clampOffsets = new long[numLayers];
+        this.stateOffsets = new long[numLayers];
+    }
+
+
+    /**
+     * Writes a network to a file, replacing anything already there.
+     *
+     * @param network - the network to write
+     * @param filename - the file to create or overwrite
+     * @param includeTrainingState - also write the statistics that have been
+     *                               accumulated but not yet applied, so that
+     *                               training can carry on from the file
+     */
+    public static void save(SimpleLayeredRBM network, String filename,
+            boolean includeTrainingState) throws IOException {
+        LayerImage[] images = new LayerImage[network.layers.length];
+        for (int l = 0; l < images.length; l++) {
+            SimpleRBM rbm = network.layers[l];
+            images[l] = new LayerImage(rbm, false);
+            if (includeTrainingState) {
+                images[l].addState(STATE_POSITIVE, rbm.dPos);
+                images[l].addState(STATE_NEGATIVE, rbm.dNeg);
+            }
+        }
+        write(images, Paths.get(filename), false);
+    } // end of method save
+
+    /*
+     * Method: write
+     *
+     * writes the layers to path, replacing anything already there; with
+     * force, waits until the file's contents have reached the disk
+     */
+    static void write(LayerImage[] layers, Path path, boolean force) throws IOException {
+        // lay the sections out first so the headers can be written in order
+        long[][] offsets = new long[layers.length][3];
+        long position = HEADER_SIZE + (long) LAYER_HEADER_SIZE * layers.length;
+        boolean trainingState = false;
+        for (int l = 0; l < layers.length; l++) {
+            LayerImage layer = layers[l];
+            position = align(position);
+            offsets[l][0] = position;
+            position += 4L * layer.weights.length;
+            if (layer.clamps != null) {
+                position = align(position);
+                offsets[l][1] = position;
+                position += 8L * layer.clamps.length;
+            }
+            if (!layer.stateTags.isEmpty()) {
+                trainingState = true;
+                position = align(position);
+                offsets[l][2] = position;
+                position += 4;
+                for (Object values : layer.stateValues) {
+                    position += 8 + 4L * length(values);
+                }
+            }
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(layers.length);
+            buffer.putInt(trainingState ? FLAG_TRAINING_STATE : 0);
+            for (int l = 0; l < layers.length; l++) {
+                LayerImage layer = layers[l];
+                buffer.putInt(layer.type);
+                buffer.putInt(layer.numVisible);
+                buffer.putInt(layer.numHidden);
+                buffer.putFloat(layer.annealingRate);
+                buffer.putInt(layer.sigmoid.ordinal());
+                buffer.putInt(0);
+                buffer.putLong(offsets[l][0]);
+                buffer.putLong(offsets[l][1]);
+                buffer.putLong(offsets[l][2]);
+            }
+
+            position = HEADER_SIZE + (long) LAYER_HEADER_SIZE * layers.length;
+            for (int l = 0; l < layers.length; l++) {
+                LayerImage layer = layers[l];
+                position = pad(channel, buffer, position, offsets[l][0]);
+                position = putFloats(channel, buffer, position, layer.weights);
+                if (offsets[l][1] != 0) {
+                    position = pad(channel, buffer, position, offsets[l][1]);
+                    for (long word : layer.clamps) {
+                        position = reserve(channel, buffer, position, 8);
+                        buffer.putLong(word);
+                    }
+                }
+                if (offsets[l][2] != 0) {
+                    position = pad(channel, buffer, position, offsets[l][2]);
+                    position = reserve(channel, buffer, position, 4);
+                    buffer.putInt(layer.stateTags.size());
+                    for (int s = 0; s < layer.stateTags.size(); s++) {
+                        position = putState(channel, buffer, position, layer.stateTags.get(s),
+                                layer.stateValues.get(s));
+                    }
+                }
+            }
+            flush(channel, buffer);
+            if (force) {
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    } // end of method write
+
+
+    /**
+     * Reads a network written by save().  Training state is restored when
+     * the file has it.
+     *
+     * @param filename - the file to read
+     * @return a network with the saved weights, clamps, annealing rates and
+     *         sigmoids
+     */
+    public static SimpleLayeredRBM load(String filename) throws IOException {
+        ModelFile file = open(filename);
+        try {
+            return file.toNetwork();
+        } finally {
+            file.close();
+        }
+    } // end of method load
+
+
+    /**
+     * Maps a model file without building a network.  Each layer's weights
+     * must fit in a single mapping (2GB).
+     *
+     * @param filename - a file written by save()
+     * @return the file's headers, with its sections readable through the
+     *         accessors below until close()
+     */
+    public static ModelFile open(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(channel, filename, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(filename + " is not a model file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException(filename + " has unsupported version " + header.getInt(4));
+            }
+            int numLayers = header.getInt(8);
+            if (numLayers <= 0) {
+                throw new IOException(filename + " has a corrupt header");
+            }
+
+            ModelFile file = new ModelFile(channel, filename, header.getInt(12), numLayers);
+            ByteBuffer layerHeaders = read(channel, filename, HEADER_SIZE,
+                    LAYER_HEADER_SIZE * numLayers);
+            for (int l = 0; l < numLayers; l++) {
+                int base = l * LAYER_HEADER_SIZE;
+                file.types[l] = layerHeaders.getInt(base);
+                file.numVisible[l] = layerHeaders.getInt(base + 4);
+                file.numHidden[l] = layerHeaders.getInt(base + 8);
+                file.annealingRates[l] = layerHeaders.getFloat(base + 12);
+                int sigmoid = layerHeaders.getInt(base + 16);
+                file.weightOffsets[l] = layerHeaders.getLong(base + 24);
+                file.clampOffsets[l] = layerHeaders.getLong(base + 32);
+                file.stateOffsets[l] = layerHeaders.getLong(base + 40);
+
+                if (sigmoid < 0 || sigmoid >= Sigmoid.values().length) {
+                    throw new IOException(filename + ": layer " + l + " has unknown sigmoid " + sigmoid);
+                }
+                file.sigmoids[l] = Sigmoid.values()[sigmoid];
+                file.validate(l);
+            }
+            return file;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    } // end of method open
+
+
+    public int getNumLayers() {
+        return types.length;
+    }
+
+    /**
+     * @return the number of visible units in a layer, including the bias
+     */
+    public int getNumVisible(int layer) {
+        return numVisible[layer];
+    }
+
+    /**
+     * @return the number of hidden units in a layer, including the bias
+     */
+    public int getNumHidden(int layer) {
+        return numHidden[layer];
+    }
+
+    public float getAnnealingRate(int layer) {
+        return annealingRates[layer];
+    }
+
+    public Sigmoid getSigmoid(int layer) {
+        return sigmoids[layer];
+    }
+
+    public boolean hasTrainingState() {
+        return (flags & FLAG_TRAINING_STATE) != 0;
+    }
+
+
+    /**
+     *
+     * @param layer - the layer to read
+     * @return that layer's row-major weights, read-only and straight from
+     *         the mapping; valid until close()
+     */
+    public FloatBuffer getWeights(int layer) throws IOException {
+        long bytes = 4L * numVisible[layer] * numHidden[layer];
+        return map(weightOffsets[layer], bytes).asFloatBuffer();
+    }
+
+    /**
+     *
+     * @param layer - the layer to read
+     * @return the layer's clamp mask, one bit per visible unit, or null if
+     *         the layer is not an input layer
+     */
+    public long[] getClampMask(int layer) throws IOException {
+        if (clampOffsets[layer] == 0) {
+            return null;
+        }
+        long[] mask = new long[Bits.words(numVisible[layer])];
+        map(clampOffsets[layer], 8L * mask.length).asLongBuffer().get(mask);
+        return mask;
+    }
+
+
+    /**
+     *
+     * @return a trainable network holding a copy of the file's contents
+     */
+    public SimpleLayeredRBM toNetwork() throws IOException {
+        Sampler rand = new XoroshiroSampler();
+        SimpleRBM[] layers = new SimpleRBM[types.length];
+        for (int l = 0; l < layers.length; l++) {
+            float[] weights = new float[numVisible[l] * numHidden[l]];
+            getWeights(l).get(weights);
+
+            if (types[l] == TYPE_INPUT) {
+                layers[l] = new InputRBM(numVisible[l], numHidden[l], weights,
+                        getClampMask(l), rand.split());
+            } else {
+                long[] below = l == 0 ? null : layers[l - 1].getHiddenBits();
+                layers[l] = new SimpleRBM(below, numVisible[l], numHidden[l], weights,
+                        rand.split());
+            }
+            layers[l].setAnnealingRate(annealingRates[l]);
+            layers[l].setSigmoid(sigmoids[l]);
+            if (stateOffsets[l] != 0) {
+                readState(l, layers[l]);
+            }
+        }
+        return new SimpleLayeredRBM(layers, rand);
+    } // end of method toNetwork
+
+
+    /**
+     *
+     * @return an immutable model that reads its weights straight from the
+     *         mapping, without the training state or a trainable network;
+     *         it stays usable after close()
+     */
+    public InferenceModel toInferenceModel() throws IOException {
+        return toInferenceModel(WeightPrecision.FLOAT32);
+    }
+
+    /**
+     *
+     * @param precision - how the model stores the weights: FLOAT32 reads
+     *                    them in place from the mapping, copying nothing,
+     *                    while FLOAT16 and INT8 read them once to build
+     *                    smaller copies on the heap
+     * @return an immutable model with the file's weights at that precision
+     */
+    public InferenceModel toInferenceModel(WeightPrecision precision) throws IOException {
+        InferenceLayer[] layers = new InferenceLayer[types.length];
+        for (int l = 0; l < layers.length; l++) {
+            if (precision == WeightPrecision.FLOAT32) {
+                layers[l] = new InferenceLayer.Mapped(numVisible[l], numHidden[l],
+                        annealingRates[l], sigmoids[l], getWeights(l));
+                continue;
+            }
+            float[] weights = new float[numVisible[l] * numHidden[l]];
+            getWeights(l).get(weights);
+            layers[l] = InferenceLayer.create(numVisible[l], numHidden[l],
+                    annealingRates[l], sigmoids[l], weights, precision);
+        }
+        long[] clamped = getClampMask(0);
+        if (clamped == null) {
+            clamped = new long[Bits.words(numVisible[0])];
+            Bits.set(clamped, numVisible[0] - 1);
+        }
+        return new InferenceModel(layers, clamped, precision);
+    } // end of method toInferenceModel
+
+
+    /**
+     * Releases the file.  Buffers returned by getWeights() stay readable
+     * until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    /*
+     * Method: validate
+     *
+     * checks that a layer's header describes sections inside the file that
+     * fit the layer below it
+     */
+    private void validate(int l) throws IOException {
+        String layer = filename + ": layer " + l;
+        if (types[l] != TYPE_RBM && types[l] != TYPE_INPUT) {
+            throw new IOException(layer + " has unknown type " + types[l]);
+        }
+        if (numVisible[l] < 1 || numHidden[l] < 1
+                || (long) numVisible[l] * numHidden[l] > Integer.MAX_VALUE) {
+            throw new IOException(layer + " has a corrupt size");
+        }
+        if (l > 0 && numVisible[l] != numHidden[l - 1]) {
+            throw new IOException(layer + " has " + numVisible[l]
+                    + " visible units but the layer below has " + numHidden[l - 1] + " hidden");
+        }
+        if ((types[l] == TYPE_INPUT) != (clampOffsets[l] != 0)) {
+            throw new IOException(layer + " has a corrupt clamp mask");
+        }
+        long size = channel.size();
+        long weightBytes = 4L * numVisible[l] * numHidden[l];
+        if (weightOffsets[l] <= 0 || weightOffsets[l] + weightBytes > size
+                || clampOffsets[l] < 0
+                || clampOffsets[l] + 8L * Bits.words(numVisible[l]) > size
+                || stateOffsets[l] < 0 || stateOffsets[l] >= size) {
+            throw new IOException(layer + " points past the end of the file");
+        }
+        if (weightBytes > Integer.MAX_VALUE) {
+            throw new IOException(layer + " has more than 2GB of weights");
+        }
+    }
+
+    /*
+     * Method: readState
+     *
+     * copies the tagged training state arrays this version knows into an RBM
+     */
+    private void readState(int l, SimpleRBM rbm) throws IOException {
+        float[] positive = getStateFloats(l, STATE_POSITIVE);
+        if (positive != null && positive.length == rbm.dPos.length) {
+            System.arraycopy(positive, 0, rbm.dPos, 0, positive.length);
+        }
+        float[] negative = getStateFloats(l, STATE_NEGATIVE);
+        if (negative != null && negative.length == rbm.dNeg.length) {
+            System.arraycopy(negative, 0, rbm.dNeg, 0, negative.length);
+        }
+    }
+
+    /*
+     * Method: getStateFloats / getStateInts
+     *
+     * the values of a layer's training state entry with the given tag, or
+     * null if the layer has none
+     */
+    float[] getStateFloats(int layer, int tag) throws IOException {
+        long[] entry = findState(layer, tag);
+        if (entry == null) {
+            return null;
+        }
+        float[] values = new float[(int) entry[1]];
+        map(entry[0], 4L * values.length).asFloatBuffer().get(values);
+        return values;
+    }
+
+    int[] getStateInts(int layer, int tag) throws IOException {
+        long[] entry = findState(layer, tag);
+        if (entry == null) {
+            return null;
+        }
+        int[] values = new int[(int) entry[1]];
+        map(entry[0], 4L * values.length).asIntBuffer().get(values);
+        return values;
+    }
+
+    // the position and length of an entry's values, skipping the others
+    private long[] findState(int l, int tag) throws IOException {
+        if (stateOffsets[l] == 0) {
+            return null;
+        }
+        long position = stateOffsets[l];
+        int count = read(channel, filename, position, 4).getInt(0);
+        position += 4;
+        for (int s = 0; s < count; s++) {
+            ByteBuffer entry = read(channel, filename, position, 8);
+            int entryTag = entry.getInt(0);
+            int length = entry.getInt(4);
+            position += 8;
+            if (length < 0 || position + 4L * length > channel.size()) {
+                throw new IOException(filename + ": layer " + l + " has corrupt training state");
+            }
+            if (entryTag == tag) {
+                return new long[] {position, length};
+            }
+            position += 4L * length;
+        }
+        return null;
+    }
+
+    private ByteBuffer map(long offset, long bytes) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer read(FileChannel channel, String filename, long offset, int bytes)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException(filename + " is truncated");
+            }
+        }
+        return buffer;
+    }
+
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    // makes room for bytes more in the buffer and returns the position after them
+    private static long reserve(FileChannel channel, ByteBuffer buffer, long position, int bytes)
+            throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+        return position + bytes;
+    }
+
+    private static long pad(FileChannel channel, ByteBuffer buffer, long position, long target)
+            throws IOException {
+        while (position < target) {
+            position = reserve(channel, buffer, position, 1);
+            buffer.put((byte) 0);
+        }
+        return position;
+    }
+
+    private static long putFloats(FileChannel channel, ByteBuffer buffer, long position,
+            float[] values) throws IOException {
+        int from = 0;
+        while (from < values.length) {
+            if (buffer.remaining() < 4) {
+                flush(channel, buffer);
+            }
+            int count = Math.min(values.length - from, buffer.remaining() / 4);
+            buffer.asFloatBuffer().put(values, from, count);
+            buffer.position(buffer.position() + 4 * count);
+            from += count;
+        }
+        return position + 4L * values.length;
+    }
+
+    private static long putInts(FileChannel channel, ByteBuffer buffer, long position,
+            int[] values) throws IOException {
+        int from = 0;
+        while (from < values.length) {
+            if (buffer.remaining() < 4) {
+                flush(channel, buffer);
+            }
+            int count = Math.min(values.length - from, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, from, count);
+            buffer.position(buffer.position() + 4 * count);
+            from += count;
+        }
+        return position + 4L * values.length;
+    }
+
+    private static long putState(FileChannel channel, ByteBuffer buffer, long position, int tag,
+            Object values) throws IOException {
+        position = reserve(channel, buffer, position, 8);
+        buffer.putInt(tag);
+        buffer.putInt(length(values));
+        if (values instanceof int[]) {
+            return putInts(channel, buffer, position, (int[]) values);
+        }
+        return putFloats(channel, buffer, position, (float[]) values);
+    }
+
+    private static int length(Object values) {
+        return values instanceof int[] ? ((int[]) values).length : ((float[]) values).length;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    /*
+     * Class: LayerImage
+     *
+     * What write() puts down for one layer: the header fields, the weights,
+     * the clamp mask of an input layer, and the tagged training state
+     * entries, each an array of floats or of ints.  The arrays are the
+     * layer's own, or copies when the image must outlive changes to it.
+     */
+    static final class LayerImage {
+        final int type;
+        final int numVisible;
+        final int numHidden;
+        final float annealingRate;
+        final Sigmoid sigmoid;
+        final float[] weights;
+        final long[] clamps;
+        final List<Integer> stateTags = new ArrayList<Integer>();
+        final List<Object> stateValues = new ArrayList<Object>();
+
+        LayerImage(SimpleRBM rbm, boolean copy) {
+            this.type = rbm instanceof InputRBM ? TYPE_INPUT : TYPE_RBM;
+            this.numVisible = rbm.numVisible;
+            this.numHidden = rbm.numHidden;
+            this.annealingRate = rbm.annealingRate;
+            this.sigmoid = rbm.sigmoid;
+            this.weights = copy ? rbm.weights.clone() : rbm.weights;
+            long[] clamped = rbm instanceof InputRBM ? ((InputRBM) rbm).clampedNodes : null;
+            this.clamps = copy && clamped != null ? clamped.clone() : clamped;
+        }
+
+        void addState(int tag, float[] values) {
+            stateTags.add(tag);
+            stateValues.add(values);
+        }
+
+        void addState(int tag, int[] values) {
+            stateTags.add(tag);
+            stateValues.add(values);
+        }
+    }
+
+} // end of class ModelFile
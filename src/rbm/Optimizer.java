@@ -0,0 +1,244 @@
+package rbm;
+
+import java.util.Arrays;
+
+/*
+ * Class: Optimizer
+ *
+ * Applies a layer's accumulated statistics to its weights with the
+ * configured UpdateRule, learning-rate schedule and weight decay, and holds
+ * whatever per-weight state the rule needs (the velocity for MOMENTUM, the
+ * two running averages for ADAM).  One per layer being trained.
+ *
+ * Each rule is one pass over the weights that reads dPos and dNeg, updates
+ * the rule's state, writes both weight layouts and clears the
+ * accumulators, as SimpleRBM.updateWeights does for plain SGD, so the extra
+ * state costs no extra passes.  The pass runs a row at a time: the rule's
+ * Kernels method updates the row in place, then the row is copied into the
+ * transposed layout.  With the defaults the SGD pass does the same
+ * arithmetic as updateWeights and gives the same weights.
+ *
+ * Plain SGD without weight decay only changes the rows of visible units
+ * that were on somewhere in the batch, as every other row of dPos and dNeg
+ * is 0, so given those units it skips the rest.  With sparse inputs this
+ * turns an update over every weight into one over a few rows.
+ *
+ * The rate for an epoch is rate / (1 + rateDecay * epoch).  Weight decay
+ * pulls every weight except the biases towards 0 by weightDecay * w per
+ * epoch, spread over the epoch's batches in proportion to their size.
+ */
+class Optimizer {
+
+    private static final float BETA1 = 0.9f;
+    private static final float BETA2 = 0.999f;
+    private static final float EPSILON = 1e-8f;
+
+    private final SimpleRBM rbm;
+    private final UpdateRule rule;
+    private final float baseRate;
+    private final float rateDecay;
+    private final float momentum;
+    private final float weightDecay;
+    private final float[] velocity;   // MOMENTUM's steps, or ADAM's first moment
+    private final float[] meanSquare; // ADAM's second moment
+
+    private float rate;
+    private int steps;                // batches applied, for ADAM's bias correction
+
+    Optimizer(SimpleRBM rbm, TrainingConfig config) {
+        this.rbm = rbm;
+        this.rule = config.getUpdateRule();
+        this.baseRate = config.getLearningRate();
+        this.rateDecay = config.getLearningRateDecay();
+        this.momentum = config.getMomentum();
+        this.weightDecay = config.getWeightDecay();
+        this.velocity = rule == UpdateRule.SGD ? null : new float[rbm.weights.length];
+        this.meanSquare = rule == UpdateRule.ADAM ? new float[rbm.weights.length] : null;
+        this.rate = baseRate;
+    }
+
+    /*
+     * Method: startEpoch
+     *
+     * sets the rate for epoch (counted from 0 within the layer)
+     */
+    void startEpoch(int epoch) {
+        rate = rateDecay == 0 ? baseRate : baseRate / (1 + rateDecay * epoch);
+    }
+
+    /*
+     * Method: getRate
+     *
+     * the current epoch's rate, which the asynchronous trainer scales itself
+     */
+    float getRate() {
+        return rate;
+    }
+
+    /*
+     * Method: getVelocity / getMeanSquare / getSteps / restore
+     *
+     * the rule's state, for checkpoints: the arrays are null when the rule
+     * keeps none.  restore copies a checkpoint's state back in.
+     */
+    float[] getVelocity() {
+        return velocity;
+    }
+
+    float[] getMeanSquare() {
+        return meanSquare;
+    }
+
+    int getSteps() {
+        return steps;
+    }
+
+    void restore(float[] velocity, float[] meanSquare, int steps) {
+        restore(this.velocity, velocity, "velocity");
+        restore(this.meanSquare, meanSquare, "second moment");
+        this.steps = steps;
+    }
+
+    private static void restore(float[] target, float[] saved, String name) {
+        if (target == null) {
+            return;
+        }
+        if (saved == null || saved.length != target.length) {
+            throw new IllegalArgumentException("the checkpoint has no " + name + " for "
+                    + "this layer; was it trained with a different update rule?");
+        }
+        System.arraycopy(saved, 0, target, 0, target.length);
+    }
+
+    /*
+     * Method: update
+     *
+     * applies and clears the layer's dPos and dNeg, accumulated over a batch
+     * of batchLength of the epoch's numInputs inputs.  touched, if not null,
+     * marks the visible units that were on in any accumulated row; it is
+     * cleared too.
+     */
+    void update(int batchLength, int numInputs, long[] touched) {
+        float decay = weightDecay * batchLength / numInputs;
+        if (touched != null && rule == UpdateRule.SGD && decay == 0) {
+            sparseSgd(numInputs, touched);
+            return;
+        }
+        if (touched != null) {
+            Arrays.fill(touched, 0);
+        }
+        switch (rule) {
+        case MOMENTUM:
+            momentum(numInputs, decay);
+            break;
+        case ADAM:
+            adam(numInputs, decay);
+            break;
+        default:
+            sgd(numInputs, decay);
+        }
+    }
+
+    /*
+     * Method: decayWeights
+     *
+     * one epoch's weight decay in a pass of its own, for the asynchronous
+     * trainer, whose per-input updates have no room for it
+     */
+    void decayWeights() {
+        if (weightDecay == 0) {
+            return;
+        }
+        float[] weights = rbm.weights;
+        float[] weightsT = rbm.weightsT;
+        int numVisible = rbm.numVisible;
+        int numHidden = rbm.numHidden;
+        float keep = 1 - rate * weightDecay;
+        for (int i = 0; i < numVisible - 1; ++i) {
+            int row = i * numHidden;
+            for (int j = 0; j < numHidden - 1; ++j) {
+                float w = weights[row + j] * keep;
+                weights[row + j] = w;
+                weightsT[j * numVisible + i] = w;
+            }
+        }
+    }
+
+
+    private void sgd(int numInputs, float decay) {
+        float[] weights = rbm.weights;
+        float[] dPos = rbm.dPos;
+        float[] dNeg = rbm.dNeg;
+        int numVisible = rbm.numVisible;
+        int numHidden = rbm.numHidden;
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = 0; i < numVisible; ++i) {
+            int row = i * numHidden;
+            float rowDecay = rate * (i == numVisible - 1 ? 0 : decay);
+            // the hidden bias, the row's last weight, is not decayed
+            kernels.sgdRow(weights, dPos, dNeg, row, numHidden - 1, rate, numInputs, rowDecay);
+            kernels.sgdRow(weights, dPos, dNeg, row + numHidden - 1, 1, rate, numInputs, 0);
+            rbm.transposeRow(i);
+        }
+    }
+
+    private void sparseSgd(int numInputs, long[] touched) {
+        float[] weights = rbm.weights;
+        float[] dPos = rbm.dPos;
+        float[] dNeg = rbm.dNeg;
+        int numHidden = rbm.numHidden;
+        for (int t = 0; t < touched.length; t++) {
+            long word = touched[t];
+            touched[t] = 0;
+            while (word != 0) {
+                int i = (t << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                Kernels.INSTANCE.sgdRow(weights, dPos, dNeg, i * numHidden, numHidden, rate,
+                        numInputs, 0);
+                rbm.transposeRow(i);
+            }
+        }
+    }
+
+    private void momentum(int numInputs, float decay) {
+        float[] weights = rbm.weights;
+        float[] dPos = rbm.dPos;
+        float[] dNeg = rbm.dNeg;
+        int numVisible = rbm.numVisible;
+        int numHidden = rbm.numHidden;
+        float scale = rate / numInputs;
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = 0; i < numVisible; ++i) {
+            int row = i * numHidden;
+            float rowDecay = rate * (i == numVisible - 1 ? 0 : decay);
+            kernels.momentumRow(weights, velocity, dPos, dNeg, row, numHidden - 1, momentum,
+                    scale, rowDecay);
+            kernels.momentumRow(weights, velocity, dPos, dNeg, row + numHidden - 1, 1, momentum,
+                    scale, 0);
+            rbm.transposeRow(i);
+        }
+    }
+
+    private void adam(int numInputs, float decay) {
+        float[] weights = rbm.weights;
+        float[] dPos = rbm.dPos;
+        float[] dNeg = rbm.dNeg;
+        int numVisible = rbm.numVisible;
+        int numHidden = rbm.numHidden;
+        steps++;
+        // folds both bias corrections into the step size
+        float step = (float) (rate * Math.sqrt(1 - Math.pow(BETA2, steps))
+                / (1 - Math.pow(BETA1, steps)));
+        float inverse = 1f / numInputs;
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = 0; i < numVisible; ++i) {
+            int row = i * numHidden;
+            float rowDecay = i == numVisible - 1 ? 0 : decay;
+            kernels.adamRow(weights, velocity, meanSquare, dPos, dNeg, row, numHidden - 1,
+                    BETA1, BETA2, EPSILON, step, inverse, rowDecay);
+            kernels.adamRow(weights, velocity, meanSquare, dPos, dNeg, row + numHidden - 1, 1,
+                    BETA1, BETA2, EPSILON, step, inverse, 0);
+            rbm.transposeRow(i);
+        }
+    }
+}
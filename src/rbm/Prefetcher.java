@@ -0,0 +1,132 @@
+package rbm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * Class: Prefetcher
+ *
+ * Reads one pass over a DataSource on a background thread, a chunk of rows at
+ * a time, so the next chunk is loaded while the current one is trained on.
+ * Only a fixed number of chunk buffers exist; they are recycled once the
+ * consumer has copied their rows out, so memory use does not depend on the
+ * size of the source.
+ */
+class Prefetcher implements Closeable {
+
+    private static final int DEPTH = 2;  // chunks read ahead of the consumer
+
+    private static class Chunk {
+        final long[][] rows;
+        int count;
+
+        Chunk(int numRows, int words) {
+            rows = new long[numRows][words];
+        }
+    }
+
+    private static final Chunk END = new Chunk(0, 0);
+
+    // room for every chunk plus the END marker, so offering END never fails
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<Chunk>(DEPTH + 2);
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(DEPTH + 1);
+    private final Thread thread;
+    private final int words;
+    private volatile Exception failure;
+
+    private Chunk current;
+    private int position;
+    private boolean finished;
+
+    /**
+     * @param source - the rows to read; a new cursor is opened for this pass
+     * @param chunkRows - the number of rows read per chunk
+     */
+    Prefetcher(final DataSource source, int chunkRows) {
+        this.words = Bits.words(source.width());
+        for (int i = 0; i < DEPTH + 1; i++) {
+            free.add(new Chunk(chunkRows, words));
+        }
+
+        thread = new Thread("rbm-prefetch") {
+            @Override
+            public void run() {
+                try {
+                    DataSource.Cursor cursor = source.open();
+                    try {
+                        while (true) {
+                            Chunk chunk = free.take();
+                            chunk.count = 0;
+                            while (chunk.count < chunk.rows.length
+                                    && cursor.next(chunk.rows[chunk.count])) {
+                                chunk.count++;
+                            }
+                            if (chunk.count > 0) {
+                                full.put(chunk);
+                            }
+                            if (chunk.count < chunk.rows.length) {
+                                break;
+                            }
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    failure = e;
+                }
+                full.offer(END);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param row - receives the next row in source order
+     * @return - false at the end of the pass
+     */
+    boolean next(long[] row) {
+        while (current == null || position == current.count) {
+            if (finished) {
+                return false;
+            }
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            Chunk chunk;
+            try {
+                chunk = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for rows", e);
+            }
+            if (chunk == END) {
+                finished = true;
+                if (failure != null) {
+                    throw failure instanceof IOException
+                            ? new UncheckedIOException((IOException) failure)
+                            : new IllegalStateException(failure);
+                }
+                return false;
+            }
+            current = chunk;
+            position = 0;
+        }
+        System.arraycopy(current.rows[position++], 0, row, 0, words);
+        return true;
+    }
+
+    /**
+     * stops the background thread if the pass was not read to the end
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,51 @@
+package rbm;
+
+import java.io.PrintStream;
+
+/*
+ * Class: ProgressPrinter
+ *
+ * A TrainingListener that prints a line of EpochMetrics every few epochs,
+ * and always for a layer's last epoch, even if it stopped early.
+ */
+public class ProgressPrinter implements TrainingListener {
+
+    private final PrintStream out;
+    private final int every;
+    private EpochMetrics last;  // not printed yet
+
+    /**
+     * @param out - where to print
+     * @param every - print every this many epochs
+     */
+    public ProgressPrinter(PrintStream out, int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("must print at least every epoch");
+        }
+        this.out = out;
+        this.every = every;
+    }
+
+    @Override
+    public void layerStarted(int layer, int numEpochs) {
+        out.println("Training layer " + layer + " for " + numEpochs + " epochs");
+    }
+
+    @Override
+    public void epochFinished(EpochMetrics metrics) {
+        if ((metrics.getEpoch() + 1) % every == 0) {
+            out.println(metrics);
+            last = null;
+        } else {
+            last = metrics;
+        }
+    }
+
+    @Override
+    public void layerFinished(int layer) {
+        if (last != null) {
+            out.println(last);
+            last = null;
+        }
+    }
+}
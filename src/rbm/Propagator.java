@@ -0,0 +1,59 @@
+package rbm;
+
+/*
+ * Class: Propagator
+ *
+ * Pushes a packed input up through the trained layers below the one being
+ * trained, with its own scratch rows so it never touches layer state.  One
+ * per thread.
+ */
+class Propagator {
+    private final SimpleRBM[] layers;
+    private final int from;
+    private final int to;
+    private final long[][] states;
+    private final float[][] sums;
+    private final int[] offsets;
+
+    Propagator(SimpleRBM[] layers, int depth) {
+        this(layers, 0, depth);
+    }
+
+    /*
+     * propagates inputs to layer from up to layer to, when the layers below
+     * from have been cached (see RepresentationCache)
+     */
+    Propagator(SimpleRBM[] layers, int from, int to) {
+        this.layers = layers;
+        this.from = from;
+        this.to = to;
+        this.states = new long[to][];
+        this.sums = new float[to][];
+        for (int i = from + 1; i < to; i++) {
+            states[i] = new long[Bits.words(layers[i].getNumVisible())];
+        }
+        int widest = 0;
+        for (int i = from; i < to; i++) {
+            sums[i] = new float[layers[i].getNumHidden()];
+            widest = Math.max(widest, layers[i].getNumVisible());
+        }
+        this.offsets = new int[widest];
+    }
+
+    /**
+     * @param input - a packed input to layer from
+     * @param out - receives the visible state for layer to
+     */
+    void propagate(long[] input, long[] out, Sampler rand) {
+        if (from == to) {
+            System.arraycopy(input, 0, out, 0, out.length);
+            return;
+        }
+        long[] below = input;
+        for (int i = from; i < to; i++) {
+            long[] above = (i == to - 1) ? out : states[i + 1];
+            layers[i].sampleHidden(below, above, sums[i], offsets, rand);
+            below = above;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package rbm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Class: RepresentationCache
+ *
+ * A trained layer's hidden representation of a whole data set, computed
+ * once and then used as the next layer's training set in place of pushing
+ * every input through all the layers below again.
+ *
+ * Rows are fixed-size records, either packed bits (CacheMode.SAMPLED) or
+ * float32 probabilities (CacheMode.PROBABILITIES), held in regions of whole
+ * rows.  The regions are heap buffers, or with a cache directory, read-write
+ * mappings of a temporary file that close() deletes.  Rows from a
+ * probability cache are sampled as they are read; the sample depends only on
+ * the cache's seed, the row and how many times that row has been read, so
+ * training stays reproducible with any number of threads.
+ */
+class RepresentationCache implements IndexedDataSource, Closeable {
+
+    // largest region held at once; rounded down to whole rows
+    private static final long MAX_REGION = 1L << 30;
+
+    // spreads row indices and read counts out before they are used as seeds
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final int width;
+    private final int numRows;
+    private final boolean probabilities;
+    private final int rowsPerRegion;
+    private final LongBuffer[] packedRegions;
+    private final FloatBuffer[] floatRegions;
+    private final FileChannel channel;
+    private final Path file;
+
+    private final long seed;
+    private final int[] reads;    // per row, for probability caches
+    private final ThreadLocal<float[]> scratch;
+    private final ThreadLocal<Sampler> samplers;
+
+    private RepresentationCache(int width, int numRows, boolean probabilities, File directory,
+            long seed) throws IOException {
+        this.width = width;
+        this.numRows = numRows;
+        this.probabilities = probabilities;
+        this.seed = seed;
+
+        long rowBytes = probabilities ? 4L * width : 8L * Bits.words(width);
+        this.rowsPerRegion = (int) Math.max(1, MAX_REGION / Math.max(1, rowBytes));
+        int numRegions = numRows == 0 ? 0 : (numRows - 1) / rowsPerRegion + 1;
+
+        if (directory == null) {
+            this.file = null;
+            this.channel = null;
+        } else {
+            this.file = Files.createTempFile(directory.toPath(), "rbm-layer", ".cache");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        this.packedRegions = probabilities ? null : new LongBuffer[numRegions];
+        this.floatRegions = probabilities ? new FloatBuffer[numRegions] : null;
+        for (int r = 0; r < numRegions; r++) {
+            long first = (long) r * rowsPerRegion;
+            long bytes = Math.min(rowsPerRegion, numRows - first) * rowBytes;
+            ByteBuffer region = channel == null
+                    ? ByteBuffer.allocate((int) bytes)
+                    : channel.map(FileChannel.MapMode.READ_WRITE, first * rowBytes, bytes);
+            region.order(ByteOrder.LITTLE_ENDIAN);
+            if (probabilities) {
+                floatRegions[r] = region.asFloatBuffer();
+            } else {
+                packedRegions[r] = region.asLongBuffer();
+            }
+        }
+
+        this.reads = probabilities ? new int[numRows] : null;
+        this.scratch = ThreadLocal.withInitial(() -> new float[width]);
+        this.samplers = ThreadLocal.withInitial(() -> new XoroshiroSampler(0));
+    }
+
+
+    /*
+     * Method: build
+     *
+     * passes every row of source (rbm's visible units, without the bias)
+     * through rbm once and caches the result
+     */
+    static RepresentationCache build(DataSource source, SimpleRBM rbm, TrainingConfig config,
+            Sampler rand) throws IOException {
+        if (source.size() > Integer.MAX_VALUE) {
+            throw new IOException("cannot cache more than " + Integer.MAX_VALUE + " rows");
+        }
+        boolean probabilities = config.getCacheMode() == CacheMode.PROBABILITIES;
+        int numRows = (int) source.size();
+        RepresentationCache cache = new RepresentationCache(rbm.getNumHidden() - 1, numRows,
+                probabilities, config.getCacheDirectory(), rand.nextLong());
+        try {
+            long[] visible = new long[Bits.words(rbm.getNumVisible())];
+            long[] hidden = new long[Bits.words(rbm.getNumHidden())];
+            float[] sums = new float[rbm.getNumHidden()];
+            int[] offsets = new int[rbm.getNumVisible()];
+
+            DataSource.Cursor cursor = source.open();
+            try {
+                int n = 0;
+                while (cursor.next(visible)) {
+                    if (n == numRows) {
+                        throw new IOException("source has more rows than its size");
+                    }
+                    Bits.set(visible, source.width());
+                    if (probabilities) {
+                        rbm.computeHiddenSums(visible, sums, offsets);
+                        rbm.logsig(sums, sums, cache.width, rbm.annealingRate);
+                        cache.put(n++, sums);
+                    } else {
+                        rbm.sampleHidden(visible, hidden, sums, offsets, rand);
+                        cache.put(n++, hidden);
+                    }
+                }
+                if (n != numRows) {
+                    throw new IOException("source has " + n + " rows, expected " + numRows);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (IOException e) {
+            cache.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    /*
+     * Method: getReads / setReads
+     *
+     * how many times each row of a probability cache has been read, which
+     * its samples depend on; null for a packed cache.  A checkpoint saves
+     * them and resuming puts them back.
+     */
+    int[] getReads() {
+        return reads == null ? null : reads.clone();
+    }
+
+    void setReads(int[] saved) {
+        if (reads == null ? saved != null : saved == null || saved.length != reads.length) {
+            throw new IllegalArgumentException("the checkpoint was taken with a different "
+                    + "cache mode or inputs");
+        }
+        if (saved != null) {
+            System.arraycopy(saved, 0, reads, 0, reads.length);
+        }
+    }
+
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public long size() {
+        return numRows;
+    }
+
+    /**
+     * Copies out one row, sampling it first if the cache holds
+     * probabilities.  Safe to call from several threads at once, as long as
+     * they read different rows.
+     */
+    @Override
+    public void row(int index, long[] row) {
+        int offset = index % rowsPerRegion;
+        if (!probabilities) {
+            int words = Bits.words(width);
+            packedRegions[index / rowsPerRegion].get(offset * words, row, 0, words);
+            return;
+        }
+        float[] p = scratch.get();
+        floatRegions[index / rowsPerRegion].get(offset * width, p, 0, width);
+        Sampler rand = samplers.get();
+        rand.setSeed(seed + (index + (long) reads[index]++ * numRows) * GOLDEN_GAMMA);
+        float[] uniforms = rand.uniforms(width);
+        for (int i = 0; i < width; i++) {
+            Bits.set(row, i, uniforms[i] < p[i]);
+        }
+    }
+
+    /**
+     * @return a cursor over the rows in order
+     */
+    @Override
+    public Cursor open() {
+        return new Cursor() {
+            private int next = 0;
+
+            @Override
+            public boolean next(long[] row) {
+                if (next == numRows) {
+                    return false;
+                }
+                row(next++, row);
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Releases the cache's file, if it has one, and deletes it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+
+    private void put(int index, long[] hidden) {
+        int words = Bits.words(width);
+        int offset = (index % rowsPerRegion) * words;
+        packedRegions[index / rowsPerRegion].put(offset, hidden, 0, words);
+        // drop the hidden bias, which sits past width
+        long last = hidden[words - 1] & ((width & 63) == 0 ? -1L : (1L << width) - 1);
+        packedRegions[index / rowsPerRegion].put(offset + words - 1, last);
+    }
+
+    private void put(int index, float[] p) {
+        floatRegions[index / rowsPerRegion].put((index % rowsPerRegion) * width, p, 0, width);
+    }
+}
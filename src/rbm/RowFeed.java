@@ -0,0 +1,183 @@
+package rbm;
+
+import java.io.IOException;
+
+/*
+ * Class: RowFeed
+ *
+ * Hands the trainer one epoch of first-layer inputs at a time, shuffled and
+ * with the bias bit set.  Indexed sources that fit in the shuffle window are
+ * fully permuted each epoch.  Anything else is streamed through a Prefetcher
+ * and shuffled within a window of shuffleWindow rows: the window is filled
+ * from the stream and each row handed out is picked at random from it and
+ * replaced by the next row read.
+ */
+abstract class RowFeed {
+
+    protected final DataSource source;
+    protected final int width;
+
+    RowFeed(DataSource source) {
+        this.source = source;
+        this.width = source.width();
+    }
+
+    static RowFeed create(DataSource source, TrainingConfig config) {
+        if (source instanceof IndexedDataSource && source.size() <= config.getShuffleWindow()) {
+            return new Indexed((IndexedDataSource) source);
+        }
+        return new Streaming(source, config.getShuffleWindow(), config.getPrefetchRows());
+    }
+
+    /*
+     * Method: startEpoch
+     *
+     * begins a new shuffled pass, abandoning any pass in progress
+     */
+    abstract void startEpoch(Sampler rand) throws IOException;
+
+    /**
+     * @param row - receives the next input, Bits.words(width + 1) longs with
+     *              the bias (bit width) set
+     * @return - false at the end of the epoch
+     */
+    abstract boolean next(long[] row);
+
+    /*
+     * Method: getOrder / setOrder
+     *
+     * the permutation the next epoch's shuffle starts from, for feeds that
+     * keep one between epochs, or null; setOrder restores it from a
+     * checkpoint
+     */
+    int[] getOrder() {
+        return null;
+    }
+
+    void setOrder(int[] order) {
+        if (order != null) {
+            throw new IllegalArgumentException("the checkpoint has an input order but the "
+                    + "data set is streamed");
+        }
+    }
+
+    /*
+     * Method: close
+     *
+     * releases anything held by the current pass
+     */
+    void close() {
+    }
+
+    protected void setBias(long[] row) {
+        Bits.set(row, width);
+    }
+
+    /*
+     * Class: Indexed
+     *
+     * full permutation of a random-access source
+     */
+    static class Indexed extends RowFeed {
+        private final IndexedDataSource indexed;
+        private final int[] order;
+        private int position;
+
+        Indexed(IndexedDataSource source) {
+            super(source);
+            this.indexed = source;
+            this.order = new int[(int) source.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+        }
+
+        @Override
+        void startEpoch(Sampler rand) {
+            rand.shuffle(order);
+            position = 0;
+        }
+
+        @Override
+        int[] getOrder() {
+            return order;
+        }
+
+        @Override
+        void setOrder(int[] saved) {
+            if (saved == null || saved.length != order.length) {
+                throw new IllegalArgumentException("the checkpoint's input order does not fit "
+                        + "a data set of " + order.length + " rows");
+            }
+            System.arraycopy(saved, 0, order, 0, order.length);
+        }
+
+        @Override
+        boolean next(long[] row) {
+            if (position == order.length) {
+                return false;
+            }
+            indexed.row(order[position++], row);
+            setBias(row);
+            return true;
+        }
+    }
+
+    /*
+     * Class: Streaming
+     *
+     * windowed shuffle over a prefetched sequential pass
+     */
+    static class Streaming extends RowFeed {
+        private final long[][] window;
+        private final int prefetchRows;
+        private Prefetcher prefetcher;
+        private Sampler rand;
+        private int filled;
+
+        Streaming(DataSource source, int windowRows, int prefetchRows) {
+            super(source);
+            this.window = new long[(int) Math.max(1, Math.min(windowRows, source.size()))]
+                    [Bits.words(width + 1)];
+            this.prefetchRows = prefetchRows;
+        }
+
+        @Override
+        void startEpoch(Sampler rand) {
+            close();
+            this.rand = rand;
+            prefetcher = new Prefetcher(source, prefetchRows);
+            filled = 0;
+            while (filled < window.length && prefetcher.next(window[filled])) {
+                filled++;
+            }
+        }
+
+        @Override
+        boolean next(long[] row) {
+            if (filled == 0) {
+                return false;
+            }
+            int pick = rand.nextInt(filled);
+            System.arraycopy(window[pick], 0, row, 0, window[pick].length);
+            setBias(row);
+
+            // refill the slot from the stream, or shrink the window at the end
+            if (!prefetcher.next(window[pick])) {
+                filled--;
+                long[] last = window[filled];
+                window[filled] = window[pick];
+                window[pick] = last;
+            }
+            return true;
+        }
+
+        @Override
+        void close() {
+            if (prefetcher != null) {
+                prefetcher.close();
+                prefetcher = null;
+            }
+        }
+    }
+}
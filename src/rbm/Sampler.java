@@ -0,0 +1,113 @@
+package rbm;
+
+/*
+ * Class: Sampler
+ *
+ * Source of the random numbers used for Gibbs sampling, weight
+ * initialization and shuffling.  A Sampler is not thread-safe; each thread
+ * should use its own, obtained with split().  Subclasses supply the raw
+ * 64-bit generator; everything else is derived from nextLong.
+ */
+public abstract class Sampler {
+
+    private float[] buffer = new float[0];
+    private double nextGaussian;
+    private boolean haveNextGaussian;
+
+    /**
+     * @return - 64 uniformly distributed random bits
+     */
+    public abstract long nextLong();
+
+    /**
+     * @param seed - resets this sampler so that it repeats the sequence of any
+     *               other sampler of the same class given the same seed
+     */
+    public abstract void setSeed(long seed);
+
+    /**
+     * @return - a new, independent sampler seeded from this one.  Splitting
+     * the same seeded sampler the same way always gives the same children.
+     */
+    public abstract Sampler split();
+
+    /**
+     * @return - a uniform float in [0, 1)
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * @return - a uniform double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @param bound - the exclusive upper bound, must be positive
+     * @return - a uniform int in [0, bound)
+     */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * @return - a standard normal deviate (Marsaglia's polar method)
+     */
+    public double nextGaussian() {
+        if (haveNextGaussian) {
+            haveNextGaussian = false;
+            return nextGaussian;
+        }
+        double x, y, s;
+        do {
+            x = 2 * nextDouble() - 1;
+            y = 2 * nextDouble() - 1;
+            s = x * x + y * y;
+        } while (s >= 1 || s == 0);
+        double scale = Math.sqrt(-2 * Math.log(s) / s);
+        nextGaussian = y * scale;
+        haveNextGaussian = true;
+        return x * scale;
+    }
+
+    /**
+     * @param out - receives count uniform floats in [0, 1)
+     */
+    public void nextFloats(float[] out, int count) {
+        for (int i = 0; i < count; i++) {
+            out[i] = nextFloat();
+        }
+    }
+
+    /**
+     * @param count - how many uniforms are needed
+     * @return - a buffer owned by this sampler whose first count entries are
+     * fresh uniform floats in [0, 1).  It is overwritten by the next call.
+     */
+    public float[] uniforms(int count) {
+        if (buffer.length < count) {
+            buffer = new float[count];
+        }
+        nextFloats(buffer, count);
+        return buffer;
+    }
+
+    /**
+     * @param order - shuffled in place (Fisher-Yates)
+     */
+    public void shuffle(int[] order) {
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    protected void resetGaussian() {
+        haveNextGaussian = false;
+    }
+}
@@ -0,0 +1,152 @@
+package rbm;
+
+import java.util.Arrays;
+
+/*
+ * Class: ScalarKernels
+ *
+ * Kernels as plain loops, one element at a time.  Used when the vector
+ * module is not available; this is the arithmetic the layers always did.
+ */
+final class ScalarKernels extends Kernels {
+
+    @Override
+    String name() {
+        return "scalar";
+    }
+
+    @Override
+    void addRow(float[] src, int from, float[] dst, int n) {
+        for (int k = 0; k < n; k++) {
+            dst[k] += src[from + k];
+        }
+    }
+
+    @Override
+    void sumRows(float[] src, int stride, long[] rows, int[] offsets, float[] dst, int n) {
+        Arrays.fill(dst, 0, n, 0);
+        for (int w = 0; w < rows.length; w++) {
+            long word = rows[w];
+            while (word != 0) {
+                int r = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                addRow(src, r * stride, dst, n);
+            }
+        }
+    }
+
+    @Override
+    void sumRows(float[] src, int stride, long[][] rows, int from, int to, float[][] dst,
+            int n) {
+        for (int b = from; b < to; b++) {
+            Arrays.fill(dst[b], 0, n, 0);
+        }
+        for (int w = 0; w < rows[from].length; w++) {
+            for (int b = from; b < to; b++) {
+                long word = rows[b][w];
+                while (word != 0) {
+                    addRow(src, ((w << 6) + Long.numberOfTrailingZeros(word)) * stride, dst[b], n);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    void addScaledRow(float[] src, int from, float scale, float[] dst, int n) {
+        for (int k = 0; k < n; k++) {
+            dst[k] += scale * src[from + k];
+        }
+    }
+
+    @Override
+    void addScaledRow(byte[] src, int from, float scale, float[] dst, int n) {
+        for (int k = 0; k < n; k++) {
+            dst[k] += scale * src[from + k];
+        }
+    }
+
+    @Override
+    void addScaledHalfRow(short[] src, int from, float scale, float[] dst, int n) {
+        for (int k = 0; k < n; k++) {
+            dst[k] += scale * halfToFloat(src[from + k]);
+        }
+    }
+
+    @Override
+    float maskedSum(float[] src, int from, long[] mask, int n) {
+        float sum = 0;
+        for (int w = 0; w < mask.length && (w << 6) < n; w++) {
+            long word = mask[w];
+            while (word != 0) {
+                int k = (w << 6) + Long.numberOfTrailingZeros(word);
+                if (k >= n) {
+                    break;
+                }
+                sum += src[from + k];
+                word &= word - 1;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    void addMasked(float[] dst, int from, long[] mask, int n, float amount) {
+        for (int w = 0; w < mask.length && (w << 6) < n; w++) {
+            long word = mask[w];
+            while (word != 0) {
+                int k = (w << 6) + Long.numberOfTrailingZeros(word);
+                if (k >= n) {
+                    break;
+                }
+                dst[from + k] += amount;
+                word &= word - 1;
+            }
+        }
+    }
+
+    @Override
+    void sgdRow(float[] w, float[] pos, float[] neg, int from, int n, float rate,
+            int numInputs, float decay) {
+        for (int k = from; k < from + n; k++) {
+            float x = w[k];
+            x += (rate * pos[k] / numInputs);
+            x -= (rate * neg[k] / numInputs);
+            if (decay != 0) {
+                x -= decay * x;
+            }
+            w[k] = x;
+            pos[k] = 0;
+            neg[k] = 0;
+        }
+    }
+
+    @Override
+    void momentumRow(float[] w, float[] v, float[] pos, float[] neg, int from, int n,
+            float momentum, float scale, float decay) {
+        for (int k = from; k < from + n; k++) {
+            float x = w[k];
+            float step = momentum * v[k] + scale * (pos[k] - neg[k]) - decay * x;
+            v[k] = step;
+            w[k] = x + step;
+            pos[k] = 0;
+            neg[k] = 0;
+        }
+    }
+
+    @Override
+    void adamRow(float[] w, float[] m, float[] s, float[] pos, float[] neg, int from, int n,
+            float beta1, float beta2, float epsilon, float step, float inverse, float decay) {
+        for (int k = from; k < from + n; k++) {
+            float x = w[k];
+            float g = (pos[k] - neg[k]) * inverse - decay * x;
+            float mk = beta1 * m[k] + (1 - beta1) * g;
+            float sk = beta2 * s[k] + (1 - beta2) * g * g;
+            m[k] = mk;
+            s[k] = sk;
+            w[k] = x + step * mk / ((float) Math.sqrt(sk) + epsilon);
+            pos[k] = 0;
+            neg[k] = 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package rbm;
+
+/*
+ * Enum: Sigmoid
+ *
+ * Interchangeable implementations of the logistic function 1 / (1 + e^-x)
+ * used to turn weighted sums into activation probabilities.  The maximum
+ * absolute errors below were measured against the double-precision function
+ * over [-64, 64] with a spacing of 1e-4, which falls between the table's
+ * samples, and with a spacing of 2^-12 (bench.SigmoidAccuracy checks them).
+ *
+ *   EXACT     Math.exp and a division                     error  < 1e-7
+ *   TABLE     linear interpolation between 4097 samples
+ *             on [-16, 16], clamped outside               error  < 1e-6
+ *   RATIONAL  [7/6] Pade approximant of tanh(x / 2),
+ *             clamped where it reaches +-1                error  < 5e-5
+ */
+public enum Sigmoid {
+
+    EXACT {
+        @Override
+        public float apply(float x) {
+            return 1 / (1 + (float) Math.exp(-x));
+        }
+    },
+
+    TABLE {
+        @Override
+        public float apply(float x) {
+            float pos = (x - TABLE_MIN) * TABLE_SCALE;
+            if (!(pos > 0)) {
+                return LOOKUP[0];
+            }
+            if (pos >= TABLE_SIZE) {
+                return LOOKUP[TABLE_SIZE];
+            }
+            int index = (int) pos;
+            float frac = pos - index;
+            return LOOKUP[index] + frac * (LOOKUP[index + 1] - LOOKUP[index]);
+        }
+    },
+
+    RATIONAL {
+        @Override
+        public float apply(float x) {
+            float y = 0.5f * x;
+            if (y >= PADE_LIMIT) {
+                return 1;
+            }
+            if (y <= -PADE_LIMIT) {
+                return 0;
+            }
+            float y2 = y * y;
+            float num = y * (135135f + y2 * (17325f + y2 * (378f + y2)));
+            float den = 135135f + y2 * (62370f + y2 * (3150f + y2 * 28f));
+            return 0.5f + 0.5f * (num / den);
+        }
+    };
+
+    private static final float TABLE_MIN = -16f;
+    private static final int TABLE_SIZE = 4096;
+    private static final float TABLE_SCALE = TABLE_SIZE / 32f;
+    private static final float[] LOOKUP = new float[TABLE_SIZE + 1];
+
+    // tanh's [7/6] approximant passes 1 just below here
+    private static final float PADE_LIMIT = 4.97f;
+
+    static {
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            double x = TABLE_MIN + i / (double) TABLE_SCALE;
+            LOOKUP[i] = (float) (1 / (1 + Math.exp(-x)));
+        }
+    }
+
+    /**
+     * @return - the logistic function of x
+     */
+    public abstract float apply(float x);
+
+    /**
+     * @param in - weighted sums
+     * @param out - receives the activation probabilities; may be in
+     * @param count - the number of entries to convert
+     * @param annealingRate - divides every input, as in SimpleRBM.logsig
+     */
+    public void apply(float[] in, float[] out, int count, float annealingRate) {
+        float scale = 1 / annealingRate;
+        for (int i = 0; i < count; i++) {
+            out[i] = apply(in[i] * scale);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package rbm;
 
-import java.util.Random;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class SimpleLayeredRBM implements Serializable {
@@ -12,7 +14,7 @@ public class SimpleLayeredRBM implements Serializable {
 	
 	//member variables
     protected SimpleRBM[] layers;
-    protected transient Random rand = new Random();
+    protected transient Sampler rand;
     
     /**
      *
@@ -23,87 +25,282 @@ public class SimpleLayeredRBM implements Serializable {
      * Constructs a new SimpleLayeredRBM given the above parameters
      */
     public SimpleLayeredRBM(int inputLength, int[] layerSizes){
+        this(inputLength, layerSizes, new XoroshiroSampler());
+    }
+
+    /**
+     *
+     * @param inputLength - the length of the inputs to this lrbm
+     * @param layerSizes - an integer array of the number of hidden nodes in
+     *                     each layer of this lrbm
+     * @param seed - seeds the weight initialization and sampling, so that two
+     *               lrbms built with the same seed are identical
+     */
+    public SimpleLayeredRBM(int inputLength, int[] layerSizes, long seed){
+        this(inputLength, layerSizes, new XoroshiroSampler(seed));
+    }
+
+    private SimpleLayeredRBM(int inputLength, int[] layerSizes, Sampler rand){
+        this.rand = rand;
         layers = new SimpleRBM[layerSizes.length];
 
-        layers[0] = new InputRBM(inputLength, layerSizes[0]);
+        // each layer gets its own stream split from ours
+        layers[0] = new InputRBM(inputLength, layerSizes[0], rand.split());
         for (int i = 1; i < layerSizes.length; i++) {
-            layers[i] = new SimpleRBM(layers[i - 1].getHidden(), layerSizes[i]);
+            layers[i] = new SimpleRBM(layers[i - 1].getHiddenBits(),
+                    layers[i - 1].getNumHidden(), layerSizes[i], rand.split());
         }
     }
 
     
+    /*
+     * Constructor: wraps layers that are already connected (see ModelFile)
+     */
+    SimpleLayeredRBM(SimpleRBM[] layers, Sampler rand){
+        this.layers = layers;
+        this.rand = rand;
+    }
+
+    /**
+     * @param sigmoid - the logistic function implementation every layer
+     *                  should use (see Sigmoid)
+     */
+    public void setSigmoid(Sigmoid sigmoid) {
+        for (SimpleRBM layer : layers) {
+            layer.setSigmoid(sigmoid);
+        }
+    }
+
+    /**
+     * @return an immutable copy of this network for concurrent inference
+     *         (see InferenceModel); training afterwards does not change it
+     */
+    public InferenceModel freeze() {
+        return InferenceModel.of(this);
+    }
+
+    public int getNumLayers() {
+        return layers.length;
+    }
+
+    public SimpleRBM getLayer(int index) {
+        return layers[index];
+    }
+
     /**
      * layeredLearn
      * @param inputs - the array of int arrays to train on
      *
      * Trains layered RBM on a series of input arrays by training each RBM layer
      * in turn.  Layers are trained through the contrastive divergence method
-     * implemented in RBM.train().  For each RBM layer after the first, inputs
-     * are propagated through previous layers by repeatedly activating hidden
-     * nodes.
+     * with the default TrainingConfig (one input per update, CD-5).  For each
+     * RBM layer after the first, inputs are propagated through previous layers
+     * by repeatedly activating hidden nodes.
      */
     public void layeredLearn(boolean[][] inputs, int numEpochs) {
+        layeredLearn(inputs, numEpochs, new TrainingConfig());
+    } // end of method layeredLearn
 
-        for (int currLayer = 0; currLayer < layers.length; currLayer++) {
-            for (int epoch = 0; epoch < numEpochs; epoch++) {
-                //set annealing rate (falls from 1 to 0 during training)
-                float annealingRate = 1 - (1f/numEpochs)*epoch;
-                layers[currLayer].setAnnealingRate(annealingRate);
-
-                for (int currInput = 0; currInput < inputs.length; currInput++){
-                        propagateInput(inputs[currInput], currLayer);
-                        layers[currLayer].train(5);
-                        layers[currLayer].updateWeights(inputs.length);
-                }
+    /**
+     * layeredLearn
+     * @param inputs - the array of int arrays to train on
+     * @param numEpochs - the number of passes over the inputs for each layer;
+     *                    a limit if the config stops early
+     * @param config - batch size, Gibbs steps, threads and seed to use
+     *
+     * Trains each layer in turn with mini-batch contrastive divergence (see
+     * MiniBatchTrainer), or lock-free per-input updates if the config asks
+     * for asynchronous training (see AsyncTrainer).
+     */
+    public void layeredLearn(boolean[][] inputs, int numEpochs, TrainingConfig config) {
+        try {
+            layeredLearn(ArrayDataSource.pack(inputs, layers[0].getNumVisible() - 1),
+                    numEpochs, config);
+        } catch (IOException e) {
+            // in-memory sources never throw
+            throw new UncheckedIOException(e);
+        }
+    } // end of method layeredLearn
+
+    /**
+     * layeredLearn
+     * @param source - the rows to train on; re-read once per epoch per layer
+     * @param numEpochs - the number of passes over the inputs for each layer;
+     *                    a limit if the config stops early
+     * @param config - batch size, Gibbs steps, threads, seed and streaming
+     *                 settings to use
+     *
+     * Trains each layer in turn from a re-iterable source.  Sources larger
+     * than the config's shuffle window are streamed, with a bounded shuffle
+     * and background prefetching, so the data set never has to fit in
+     * memory.  Asynchronous training needs an IndexedDataSource.  With a
+     * checkpoint file in the config, the run is saved as it goes and can be
+     * carried on with resume() if it dies.
+     */
+    public void layeredLearn(DataSource source, int numEpochs, TrainingConfig config)
+            throws IOException {
+        layeredLearn(source, numEpochs, config, null);
+    } // end of method layeredLearn
+
+    private void layeredLearn(DataSource source, int numEpochs, TrainingConfig config,
+            TrainingProgress progress) throws IOException {
+        if (source.width() != layers[0].getNumVisible() - 1) {
+            throw new IllegalArgumentException("source has " + source.width()
+                    + " columns but the first layer has " + (layers[0].getNumVisible() - 1)
+                    + " inputs");
+        }
+        if (config.isAsynchronous()) {
+            if (!(source instanceof IndexedDataSource)) {
+                throw new IllegalArgumentException(
+                        "asynchronous training needs an IndexedDataSource");
             }
+            new AsyncTrainer(layers, config, progress).train((IndexedDataSource) source,
+                    numEpochs);
+        } else {
+            new MiniBatchTrainer(layers, config, progress).train(source, numEpochs);
         }
     } // end of method layeredLearn
 
+    /**
+     * resume
+     * @param checkpointFile - a checkpoint written by a layeredLearn run
+     *                         (see TrainingConfig.setCheckpointFile)
+     * @param source - the same rows the run was training on
+     * @param config - the same settings the run was started with; its seed
+     *                 may be left unset, the run's own is kept
+     * @return the network, trained as far as the run was asked to
+     *
+     * Carries on a layeredLearn run from its last checkpoint, with the
+     * weights, schedule, optimizer, chains, input order and random number
+     * generator it was saved with, so the result is the one the run would
+     * have reached had it not stopped.  Checkpoints go on being written if
+     * the config asks for them.
+     */
+    public static SimpleLayeredRBM resume(String checkpointFile, DataSource source,
+            TrainingConfig config) throws IOException {
+        SimpleLayeredRBM lrbm;
+        TrainingProgress progress;
+        ModelFile file = ModelFile.open(checkpointFile);
+        try {
+            progress = TrainingProgress.read(file);
+            if (progress == null) {
+                throw new IOException(checkpointFile + " is not a checkpoint");
+            }
+            lrbm = file.toNetwork();
+        } finally {
+            file.close();
+        }
+        lrbm.layeredLearn(source, progress.numEpochs, config, progress);
+        return lrbm;
+    } // end of method resume
+
+    public static SimpleLayeredRBM resume(String checkpointFile, boolean[][] inputs,
+            TrainingConfig config) throws IOException {
+        ModelFile file = ModelFile.open(checkpointFile);
+        int width;
+        try {
+            width = file.getNumVisible(0) - 1;
+        } finally {
+            file.close();
+        }
+        return resume(checkpointFile, ArrayDataSource.pack(inputs, width), config);
+    } // end of method resume
+
     
     
     public void train(boolean[][] inputs, int numEpochs){
+    	train(inputs, numEpochs, new TrainingConfig());
+    } // end of method train
+
+    public void train(boolean[][] inputs, int numEpochs, TrainingConfig config){
     	((InputRBM)this.layers[0]).clamp(0);
-    	layeredLearn(inputs, numEpochs);
+    	layeredLearn(inputs, numEpochs, config);
     	
     } // end of method train
+
+    public void train(DataSource source, int numEpochs, TrainingConfig config)
+            throws IOException {
+    	((InputRBM)this.layers[0]).clamp(0);
+    	layeredLearn(source, numEpochs, config);
+
+    } // end of method train
     
     
+    /**
+     * predict
+     * @param testInputs - observations, each one input shorter than the
+     *                     rows the network was trained on; input 0 is the
+     *                     value to predict
+     * @param numCycles - the number of activation cycles per observation
+     * @return for each observation, the activation probability of every input
+     *
+     * Input 0 starts at a random value and is sampled freely, while the rest
+     * are clamped to the observation.  Observations are predicted in parallel
+     * on a frozen copy of the network (see BatchPredictor), one thread per
+     * available processor.
+     */
+    public float[][] predict(boolean[][] testInputs, int numCycles){
+    	return predict(testInputs, numCycles, InferenceMode.SAMPLED);
+    } // end of method predict
+
+    /**
+     * predict
+     * @param mode - MEAN_FIELD propagates probabilities instead of samples,
+     *               starting input 0 off rather than at random, so the
+     *               result is deterministic and a few cycles are enough
+     *
+     * As above, with a choice of InferenceMode.
+     */
+    public float[][] predict(boolean[][] testInputs, int numCycles, InferenceMode mode){
+    	return newPredictor(numCycles, mode).predict(withLabels(testInputs, mode));
+    } // end of method predict
+
+    /**
+     * predict
+     * @param outputFileName - receives one line per observation, in order,
+     *                         holding its probabilities separated by commas
+     *
+     * As above, but streams the predictions to a file as they finish.
+     */
     public void predict(boolean[][] testInputs, int numCycles, String outputFileName){
-    	((InputRBM)this.layers[0]).unclamp(0);
-    	
+    	predict(testInputs, numCycles, InferenceMode.SAMPLED, outputFileName);
+    } // end of method predict
+
+    public void predict(boolean[][] testInputs, int numCycles, InferenceMode mode,
+    		String outputFileName){
     	try{
-    		
-    	
-	    	for(int i = 1; i < this.layers[0].getVisible().length; i++){
-	    		((InputRBM)this.layers[0]).clamp(i);
-	    	}
-	    	
-	    	boolean[] seed;
-	    	for(boolean[] datapoint : testInputs){
-	    		seed = new boolean[datapoint.length + 1];
-	    		
-	    		// start with a random prediction, fill in the with our observation
-	    		seed[0] = this.rand.nextDouble() < 0.5;
-	    		System.arraycopy(datapoint, 0, seed, 1, datapoint.length);
-	    		
-	    		layeredGenerate(seed, numCycles);	    		
-	    	}
-	    	
-	    	float[] prediction = ((InputRBM)this.layers[0]).predict();
-	    	
-	    	
-	    	// write the prediction to file
 	    	BufferedWriter bw = new BufferedWriter(new FileWriter(new File(outputFileName)));
-	    	for(float p: prediction){
-	    		bw.write("" + p + "\n");
+	    	try{
+	    		newPredictor(numCycles, mode).predict(withLabels(testInputs, mode), bw);
+	    	}finally{
+	    		bw.close();
 	    	}
-	    	
-	    	bw.close();
     	}catch(Exception e){
     		e.printStackTrace();
     	}
     	
     } // end of method predict
+
+    private BatchPredictor newPredictor(int numCycles, InferenceMode mode){
+    	BatchPredictor predictor = new BatchPredictor(freeze(), numCycles,
+    			Runtime.getRuntime().availableProcessors());
+    	predictor.setSeed(this.rand.nextLong());
+    	predictor.setMode(mode);
+    	predictor.unclamp(0);
+    	predictor.clamp(1, layers[0].getNumVisible() - 1);
+    	return predictor;
+    }
+
+    // prepends a starting guess for input 0 to every observation
+    private boolean[][] withLabels(boolean[][] testInputs, InferenceMode mode){
+    	boolean[][] seeds = new boolean[testInputs.length][];
+    	for(int r = 0; r < testInputs.length; r++){
+    		seeds[r] = new boolean[testInputs[r].length + 1];
+    		seeds[r][0] = mode == InferenceMode.SAMPLED && this.rand.nextDouble() < 0.5;
+    		System.arraycopy(testInputs[r], 0, seeds[r], 1, testInputs[r].length);
+    	}
+    	return seeds;
+    }
     
     /**
      *
@@ -131,20 +328,31 @@ public class SimpleLayeredRBM implements Serializable {
     }
 
     /**
-     * propagateInput
-     * @param input - the input to propagate through the network
-     * @param depth - the number of layers to propagate through
-     * @return
+     * Runs numChains chains like the one above at once, across every
+     * processor (see ChainSampler).
      *
-     * Assigns input array to nodes of first network layer.  Propagates that
-     * input through the network by repeatedly activating hidden nodes and
-     * assigning the result to the next layers input nodes.
+     * @param seed - the starting input values of every chain
+     * @param numChains - the number of independent chains
+     * @param samplesPerChain - the number of samples each chain takes
+     * @param burnIn - the number of cycles before a chain's first sample
+     * @param thinning - the number of cycles between a chain's samples
+     * @return the samples, packed (see Bits), without the bias; sample k of
+     *         chain c is row k * numChains + c
      */
-    private void propagateInput(boolean[] input, int depth) {
-        layers[0].setInput(input);
-        for (int i = 0; i < depth; i++) {
-            layers[i].activateHidden();
-        }
+    public long[][] layeredGenerate(boolean[] seed, int numChains, int samplesPerChain,
+            int burnIn, int thinning) {
+        ChainSampler sampler = new ChainSampler(freeze(), numChains,
+                Runtime.getRuntime().availableProcessors());
+        sampler.setSeed(this.rand.nextLong());
+        sampler.setBurnIn(burnIn);
+        sampler.setThinning(thinning);
+        return sampler.sample(seed, samplesPerChain);
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rand = new XoroshiroSampler();
     }
     
     
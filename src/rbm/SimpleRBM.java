@@ -1,24 +1,44 @@
 package rbm;
 
-import java.util.Random;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class SimpleRBM implements Serializable {
 	  //member variables
 
     /**
-	 * 
+	 * Changed when the weights became flat float[]s and the unit states
+	 * packed long[]s: older files cannot be read into the new fields.
 	 */
-	private static final long serialVersionUID = -4412383722010406930L;
+	private static final long serialVersionUID = -6666610213256538193L;
+
+	protected static final float LEARNING_RATE = 0.2f;
 	
-	protected boolean[] visibleNodes;
-	protected boolean[] hiddenNodes;
-	protected float[][] weights;
-	protected float[][] dPos;    // accumulates positive weight changes
-	protected float[][] dNeg;    // accumulates negative weight changes
+	// unit states are packed into bitsets (see Bits); the bias is the last unit
+	protected long[] visibleNodes;
+	protected long[] hiddenNodes;
+	protected int numVisible;    // visible units, including the bias
+	protected int numHidden;     // hidden units, including the bias
+
+	// weights are stored flat and row-major: weights[i * numHidden + j] connects
+	// visible node i to hidden node j.  weightsT holds the same matrix
+	// column-major (weightsT[j * numVisible + i]) so that sums over either
+	// layer read memory in order.  The two are kept in sync by updateWeights.
+	protected float[] weights;
+	protected transient float[] weightsT;
+	protected float[] dPos;      // accumulates positive weight changes
+	protected float[] dNeg;      // accumulates negative weight changes
 	protected float annealingRate; // multiplier in sigmoid function
+	protected Sigmoid sigmoid = Sigmoid.EXACT;
+
+    // scratch space for weighted sums, one entry per unit, and for the
+    // offsets of the rows they add (see Kernels.sumRows)
+    protected transient float[] visibleSums;
+    protected transient float[] hiddenSums;
+    protected transient int[] rowOffsets;
     
-    protected transient Random rand = new Random();
+    protected transient Sampler rand;
     
     /*
      *  Method: constructor
@@ -26,54 +46,125 @@ public class SimpleRBM implements Serializable {
      *  constructs a new RBM
      */
     public SimpleRBM(int numVisibleNodes, int numHiddenNodes) {
+        this(numVisibleNodes, numHiddenNodes, new XoroshiroSampler());
+    }
+
+    /*
+     *  Method: constructor
+     *
+     *  constructs a new RBM whose weights are initialized from, and whose
+     *  nodes are activated with, the given sampler
+     */
+    public SimpleRBM(int numVisibleNodes, int numHiddenNodes, Sampler rand) {
+        this.rand = rand;
+
         //initialize nodes
-        this.visibleNodes = new boolean[numVisibleNodes + 1]; //add one spot for bias
-        this.hiddenNodes = new boolean[numHiddenNodes + 1];
-        visibleNodes[visibleNodes.length - 1] = true; //bias is always on
-        hiddenNodes[hiddenNodes.length - 1] = true;
-
-        //initialize weights and weight change matrices
-        this.weights = new float[numVisibleNodes + 1][numHiddenNodes + 1];
-        this.dPos = new float[numVisibleNodes + 1][numHiddenNodes + 1];
-        this.dNeg = new float[numVisibleNodes + 1][numHiddenNodes + 1];
-         //randomly initialize weights
-        for (int i = 0; i < numVisibleNodes + 1; ++i) {
-            for (int j = 0; j < numHiddenNodes + 1; ++j) {
-                weights[i][j] = new Float(0.1 * rand.nextGaussian());
-                dPos[i][j] = 0;
-                dNeg[i][j] = 0;
-            }
-        }
+        this.visibleNodes = new long[Bits.words(numVisibleNodes + 1)]; //add one spot for bias
+        this.hiddenNodes = new long[Bits.words(numHiddenNodes + 1)];
+        Bits.set(visibleNodes, numVisibleNodes); //bias is always on
+        Bits.set(hiddenNodes, numHiddenNodes);
+
+        initWeights(numVisibleNodes + 1, numHiddenNodes + 1);
     }
 
     /*
      * Method: constructor
      *
      * constructs a new SimpleRBM using a pre-defined set of input nodes.
-     * useful when layering RBMs.
+     * useful when layering RBMs.  numVisibleNodes is the number of units in
+     * visibleNodes, including the bias that is already set.
+     */
+    public SimpleRBM(long[] visibleNodes, int numVisibleNodes, int numHiddenNodes) {
+        this(visibleNodes, numVisibleNodes, numHiddenNodes, new XoroshiroSampler());
+    }
+
+    public SimpleRBM(long[] visibleNodes, int numVisibleNodes, int numHiddenNodes,
+            Sampler rand) {
+        this.rand = rand;
+        this.visibleNodes = visibleNodes;
+
+        this.hiddenNodes = new long[Bits.words(numHiddenNodes + 1)];
+        Bits.set(hiddenNodes, numHiddenNodes);
+
+        initWeights(numVisibleNodes, numHiddenNodes + 1);
+    }
+
+    /*
+     * Method: constructor
+     *
+     * rebuilds an RBM around existing weights (see ModelFile).  numVisible
+     * and numHidden include the bias units, weights is row-major and is used
+     * as it is, and visibleNodes may be null for a first layer.
      */
-    public SimpleRBM(boolean[] visibleNodes, int numHiddenNodes) {
+    SimpleRBM(long[] visibleNodes, int numVisible, int numHidden, float[] weights,
+            Sampler rand) {
+        this.rand = rand;
+        if (visibleNodes == null) {
+            visibleNodes = new long[Bits.words(numVisible)];
+            Bits.set(visibleNodes, numVisible - 1);
+        }
         this.visibleNodes = visibleNodes;
+        this.hiddenNodes = new long[Bits.words(numHidden)];
+        Bits.set(hiddenNodes, numHidden - 1);
 
-        this.hiddenNodes = new boolean[numHiddenNodes + 1];
-        this.hiddenNodes[hiddenNodes.length - 1] = true;
-
-        //initialize weights and weight change matrices
-        this.weights = new float[visibleNodes.length][numHiddenNodes + 1];
-        this.dPos = new float[visibleNodes.length][numHiddenNodes + 1];
-        this.dNeg = new float[visibleNodes.length][numHiddenNodes + 1];
-         //randomly initialize weights
-        for (int i = 0; i < visibleNodes.length; ++i) {
-            for (int j = 0; j < numHiddenNodes + 1; ++j) {
-                weights[i][j] = new Float(0.1 * rand.nextGaussian());
-                dPos[i][j] = 0;
-                dNeg[i][j] = 0;
+        this.numVisible = numVisible;
+        this.numHidden = numHidden;
+        this.weights = weights;
+        this.dPos = new float[numVisible * numHidden];
+        this.dNeg = new float[numVisible * numHidden];
+        this.visibleSums = new float[numVisible];
+        this.hiddenSums = new float[numHidden];
+        this.rowOffsets = new int[Math.max(numVisible, numHidden)];
+        rebuildTranspose();
+    }
+
+    /*
+     * Method: initWeights
+     *
+     * allocates the flat weight and weight change matrices and randomly
+     * initializes the weights
+     */
+    private void initWeights(int numVisible, int numHidden) {
+        this.numVisible = numVisible;
+        this.numHidden = numHidden;
+        this.weights = new float[numVisible * numHidden];
+        this.weightsT = new float[numVisible * numHidden];
+        this.dPos = new float[numVisible * numHidden];
+        this.dNeg = new float[numVisible * numHidden];
+        this.visibleSums = new float[numVisible];
+        this.hiddenSums = new float[numHidden];
+        this.rowOffsets = new int[Math.max(numVisible, numHidden)];
+        for (int i = 0; i < numVisible; ++i) {
+            for (int j = 0; j < numHidden; ++j) {
+                float w = (float) (0.1 * rand.nextGaussian());
+                weights[i * numHidden + j] = w;
+                weightsT[j * numVisible + i] = w;
             }
         }
     }
 
+    /*
+     * Method: rebuildTranspose
+     *
+     * recomputes the column-major copy of the weights from the row-major one
+     */
+    protected void rebuildTranspose() {
+        if (weightsT == null || weightsT.length != weights.length) {
+            weightsT = new float[weights.length];
+        }
+        for (int i = 0; i < numVisible; ++i) {
+            int row = i * numHidden;
+            for (int j = 0; j < numHidden; ++j) {
+                weightsT[j * numVisible + i] = weights[row + j];
+            }
+        }
+    }
+
+    /**
+     * @return - a boolean[] copy of the state of the visible layer
+     */
     public boolean[] getVisible() {
-        return visibleNodes;
+        return Bits.unpack(visibleNodes, numVisible);
     }
 
     /*
@@ -82,21 +173,144 @@ public class SimpleRBM implements Serializable {
      * To be called only in LayeredRBM for first layer
      */
     public void setInput(boolean[] newInput) {
-        for (int i = 0; i < visibleNodes.length - 1 && i < newInput.length; i++) {
-            visibleNodes[i] = newInput[i];
+        for (int i = 0; i < numVisible - 1 && i < newInput.length; i++) {
+            Bits.set(visibleNodes, i, newInput[i]);
         }
     }
 
+    /*
+     * Method: setInput
+     *
+     * as above, from the indices of the inputs that are on (see
+     * SparseDataSource), so a sparse row is never expanded.  Every other
+     * input is turned off; indices outside the inputs are ignored.
+     */
+    public void setInput(int[] activeInputs, int count) {
+        for (int w = 0; w < visibleNodes.length; w++) {
+            visibleNodes[w] = 0;
+        }
+        for (int n = 0; n < count; n++) {
+            if (activeInputs[n] >= 0 && activeInputs[n] < numVisible - 1) {
+                Bits.set(visibleNodes, activeInputs[n]);
+            }
+        }
+        Bits.set(visibleNodes, numVisible - 1);
+    }
+
+    /**
+     * @return - a boolean[] copy of the state of the hidden layer
+     */
     public boolean[] getHidden() {
+        return Bits.unpack(hiddenNodes, numHidden);
+    }
+
+    /**
+     * @return - the packed visible layer backing this RBM (not a copy)
+     */
+    public long[] getVisibleBits() {
+        return visibleNodes;
+    }
+
+    /**
+     * @return - the packed hidden layer backing this RBM (not a copy).  The
+     * next layer up shares this array as its visible layer.
+     */
+    public long[] getHiddenBits() {
         return hiddenNodes;
     }
 
+    public int getNumVisible() {
+        return numVisible;
+    }
+
+    public int getNumHidden() {
+        return numHidden;
+    }
+
+    /**
+     * @return - a [visible][hidden] copy of the weights.  Changes to the
+     * returned array do not affect this RBM; use setWeights to write back.
+     */
     public float[][] getWeights() {
-        return weights;
+        float[][] copy = new float[numVisible][numHidden];
+        for (int i = 0; i < numVisible; ++i) {
+            System.arraycopy(weights, i * numHidden, copy[i], 0, numHidden);
+        }
+        return copy;
     }
 
+    /**
+     * @param weights - a [visible][hidden] matrix the same shape as the one
+     *                  returned by getWeights
+     */
     public void setWeights(float[][] weights) {
-        this.weights = weights;
+        if (weights.length != numVisible || weights[0].length != numHidden) {
+            throw new IllegalArgumentException("expected a " + numVisible + "x"
+                    + numHidden + " weight matrix");
+        }
+        for (int i = 0; i < numVisible; ++i) {
+            System.arraycopy(weights[i], 0, this.weights, i * numHidden, numHidden);
+        }
+        rebuildTranspose();
+    }
+
+    /**
+     * @return - the row-major weight array backing this RBM (not a copy)
+     */
+    public float[] getFlatWeights() {
+        return weights;
+    }
+
+    /*
+     * Method: initVisibleBiases
+     *
+     * sets the bias of every visible unit to log(p / (1 - p)), where p is
+     * how often that input is on in source (smoothed so it is never 0 or 1),
+     * as Hinton's practical guide suggests.  The visible layer then starts
+     * out as sparse as the data, so reconstructions of sparse inputs are
+     * sparse from the first batch.  One pass over source, visiting only the
+     * set bits.
+     */
+    void initVisibleBiases(DataSource source) throws IOException {
+        long[] counts = new long[numVisible - 1];
+        long[] row = new long[Bits.words(source.width() + 1)];
+        long numRows = 0;
+        DataSource.Cursor cursor = source.open();
+        try {
+            while (cursor.next(row)) {
+                for (int w = 0; w < Bits.words(source.width()); w++) {
+                    long word = row[w];
+                    while (word != 0) {
+                        int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                        if (i < counts.length) {
+                            counts[i]++;
+                        }
+                    }
+                }
+                numRows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        int bias = numHidden - 1;
+        for (int i = 0; i < counts.length; i++) {
+            double p = (counts[i] + 0.5) / (numRows + 1);
+            float w = (float) Math.log(p / (1 - p));
+            weights[i * numHidden + bias] = w;
+            weightsT[bias * numVisible + i] = w;
+        }
+    }
+
+    public Sampler getSampler() {
+        return rand;
+    }
+
+    /**
+     * @param rand - the sampler used by activateVisible/activateHidden
+     */
+    public void setSampler(Sampler rand) {
+        this.rand = rand;
     }
 
     public void setAnnealingRate(float newRate) {
@@ -127,44 +341,73 @@ public class SimpleRBM implements Serializable {
      *  activation states and weights of the other nodes
      */
     public void activateVisible() {
+        sampleVisible(hiddenNodes, visibleNodes, visibleSums, rowOffsets, rand);
+    }
 
-        //initialize random number generator
-        
+    public void activateHidden() {
+        sampleHidden(visibleNodes, hiddenNodes, hiddenSums, rowOffsets, rand);
+    } // end of method activate hidden
 
-        for (int i = 0; i < visibleNodes.length - 1; ++i) {
-            //compute weighted sum
-            float sum = computeVisibleWeightedSum(i);
+    /*
+     * Method: sampleVisible / sampleHidden
+     *
+     * Stateless forms of activateVisible/activateHidden: sample one packed
+     * layer from another using the caller's buffers rather than this RBM's
+     * nodes, so that many inputs can be in flight at once.  sums is scratch
+     * space with one entry per unit of the layer being sampled, offsets with
+     * one per unit of the layer sampled from.  The bias unit is left on.
+     */
+    public void sampleVisible(long[] hidden, long[] visible, float[] sums, int[] offsets,
+            Sampler rand) {
+        computeVisibleSums(hidden, sums, offsets);
+        logsig(sums, sums, numVisible - 1, 1);
+        float[] uniforms = rand.uniforms(numVisible - 1);
+        for (int i = 0; i < numVisible - 1; ++i) {
             // Probabilistically activate node based on sigmoid computation
-            visibleNodes[i] = (rand.nextDouble() < logsig(sum, 1));
+            Bits.set(visible, i, uniforms[i] < sums[i]);
         }
     }
 
-    public void activateHidden() {
-        
-        for (int i = 0; i < hiddenNodes.length - 1; ++i) {
-            //compute weighted sum
-            float sum = 0;
-            for (int j = 0; j < visibleNodes.length; ++j) {
-                if (visibleNodes[j]) {
-                    sum += weights[j][i];
-                }
-            }
-
+    public void sampleHidden(long[] visible, long[] hidden, float[] sums, int[] offsets,
+            Sampler rand) {
+        computeHiddenSums(visible, sums, offsets);
+        logsig(sums, sums, numHidden - 1, annealingRate);
+        float[] uniforms = rand.uniforms(numHidden - 1);
+        for (int j = 0; j < numHidden - 1; ++j) {
             // Probabilistically activate node based on sigmoid computation
-            hiddenNodes[i] = (rand.nextDouble() < logsig(sum, annealingRate));
+            Bits.set(hidden, j, uniforms[j] < sums[j]);
         }
-    } // end of method activate hidden
+        Bits.set(hidden, numHidden - 1);
+    }
+
+    /*
+     * Method: computeVisibleSums / computeHiddenSums
+     *
+     * Fills sums with the weighted sum into every unit of one layer.  Only
+     * the active units of the other layer are visited, and each one adds its
+     * whole (contiguous) row of weights (see Kernels.sumRows).  offsets is
+     * scratch space with one entry per unit of the other layer.
+     */
+    protected void computeVisibleSums() {
+        computeVisibleSums(hiddenNodes, visibleSums, rowOffsets);
+    }
+
+    protected void computeVisibleSums(long[] hidden, float[] sums, int[] offsets) {
+        Kernels.INSTANCE.sumRows(weightsT, numVisible, hidden, offsets, sums, numVisible);
+    }
+
+    protected void computeHiddenSums() {
+        computeHiddenSums(visibleNodes, hiddenSums, rowOffsets);
+    }
+
+    protected void computeHiddenSums(long[] visible, float[] sums, int[] offsets) {
+        Kernels.INSTANCE.sumRows(weights, numHidden, visible, offsets, sums, numHidden);
+    }
 
     
     //Computes the weighted sum for a visible node
     public float computeVisibleWeightedSum(int index) {
-        float sum = 0;
-        for (int j = 0; j < hiddenNodes.length; j++) {
-            if (hiddenNodes[j]) {
-                sum += weights[index][j];
-            }
-        }
-        return sum;
+        return Kernels.INSTANCE.maskedSum(weights, index * numHidden, hiddenNodes, numHidden);
     }
 
     /*
@@ -175,20 +418,62 @@ public class SimpleRBM implements Serializable {
      *
      */
     protected void accumulatePos() {
-        for (int i = 0; i < visibleNodes.length; ++i) {
-            if (visibleNodes[i]) {
-                for (int j = 0; j < hiddenNodes.length; ++j) {
-                    dPos[i][j] += hiddenNodes[j] ? 1: 0;
-                }
+        accumulate(visibleNodes, hiddenNodes, dPos);
+    }
+
+    protected void accumulateNeg() {
+        accumulate(visibleNodes, hiddenNodes, dNeg);
+    }
+
+    /*
+     * Method: accumulate
+     *
+     * adds the outer product of a packed visible and hidden state (times
+     * amount, if given) to acc, a [visible][hidden] matrix laid out like the
+     * weights
+     */
+    protected void accumulate(long[] visible, long[] hidden, float[] acc) {
+        accumulate(visible, hidden, acc, 1);
+    }
+
+    protected void accumulate(long[] visible, long[] hidden, float[] acc, float amount) {
+        for (int vw = 0; vw < visible.length; ++vw) {
+            long vword = visible[vw];
+            while (vword != 0) {
+                int row = ((vw << 6) + Long.numberOfTrailingZeros(vword)) * numHidden;
+                vword &= vword - 1;
+                Kernels.INSTANCE.addMasked(acc, row, hidden, numHidden, amount);
             }
         }
     }
 
-    protected void accumulateNeg() {
-        for (int i = 0; i < visibleNodes.length; ++i) {
-            if (visibleNodes[i]) {
-                for (int j = 0; j < hiddenNodes.length; ++j) {
-                    dNeg[i][j] += hiddenNodes[j] ? 1 : 0;
+    /*
+     * Method: accumulate
+     *
+     * adds the outer products of rows [from, to) of a batch of packed states
+     * to acc, each times amount.  The batch is walked one visible unit at a
+     * time, adding that unit's row of acc for every state it is on in, so
+     * each row is loaded once per batch rather than once per state.  Every
+     * entry still receives its additions in row order, so acc ends up exactly
+     * as it would from one call per row.
+     */
+    void accumulate(long[][] visible, long[][] hidden, int from, int to, float[] acc,
+            float amount) {
+        Kernels kernels = Kernels.INSTANCE;
+        int words = Bits.words(numVisible);
+        for (int vw = 0; vw < words; ++vw) {
+            long any = 0;
+            for (int b = from; b < to; b++) {
+                any |= visible[b][vw];
+            }
+            while (any != 0) {
+                long bit = any & -any;
+                int row = ((vw << 6) + Long.numberOfTrailingZeros(any)) * numHidden;
+                any &= any - 1;
+                for (int b = from; b < to; b++) {
+                    if ((visible[b][vw] & bit) != 0) {
+                        kernels.addMasked(acc, row, hidden[b], numHidden, amount);
+                    }
                 }
             }
         }
@@ -204,17 +489,61 @@ public class SimpleRBM implements Serializable {
      *
      */
     public void updateWeights(int numInputs) {
-        for (int i = 0; i < weights.length; ++i) {
-            for (int j = 0; j < weights[0].length; ++j) {
-                weights[i][j] += (0.2f * dPos[i][j] / numInputs);
-                weights[i][j] -= (0.2f * dNeg[i][j] / numInputs);
+        for (int i = 0; i < numVisible; ++i) {
+            int row = i * numHidden;
+            Kernels.INSTANCE.sgdRow(weights, dPos, dNeg, row, numHidden, LEARNING_RATE,
+                    numInputs, 0);
+            transposeRow(i);
+        }
+    }
 
-                dPos[i][j] = 0;
-                dNeg[i][j] = 0;
+    /*
+     * Method: applyOuterProduct
+     *
+     * adds delta to the weight between every active visible and active hidden
+     * node, in both weight layouts.  Used by the asynchronous trainer: several
+     * threads may call this at once without locking, and an update that
+     * races with another one may be lost.  For sparse inputs collisions are
+     * rare and do not stop training from converging.  (The vector kernels
+     * write back a whole vector of neighbouring weights at a time, so a race
+     * can lose the update of a neighbour as well.)  The two layouts are
+     * written separately, so a race can lose an update from one and not the
+     * other, leaving weights and weightsT out of step; callers running this
+     * concurrently must call rebuildTranspose before the layouts are relied
+     * on to agree.
+     */
+    void applyOuterProduct(long[] visible, long[] hidden, float delta) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int vw = 0; vw < visible.length; ++vw) {
+            long vword = visible[vw];
+            while (vword != 0) {
+                int i = (vw << 6) + Long.numberOfTrailingZeros(vword);
+                vword &= vword - 1;
+                kernels.addMasked(weights, i * numHidden, hidden, numHidden, delta);
+            }
+        }
+        for (int hw = 0; hw < hidden.length; ++hw) {
+            long hword = hidden[hw];
+            while (hword != 0) {
+                int j = (hw << 6) + Long.numberOfTrailingZeros(hword);
+                hword &= hword - 1;
+                kernels.addMasked(weightsT, j * numVisible, visible, numVisible, delta);
             }
         }
     }
 
+    /*
+     * Method: transposeRow
+     *
+     * copies row i of weights into weightsT, after an update has changed it
+     */
+    void transposeRow(int i) {
+        int row = i * numHidden;
+        for (int j = 0; j < numHidden; ++j) {
+            weightsT[j * numVisible + i] = weights[row + j];
+        }
+    }
+
     /*
      * Method: getEnergy
      *
@@ -224,13 +553,12 @@ public class SimpleRBM implements Serializable {
      */
     public float getEnergy() {
         float energy = 0;
-        int vn;
-        int hn;
-        for (int i = 0; i < visibleNodes.length; ++i) {
-            for (int j = 0; j < hiddenNodes.length; ++j) {
-            	vn = visibleNodes[i] ? 1 : 0;
-            	hn = hiddenNodes[j] ? 1 : 0;      			
-                energy -= vn * hn * weights[i][j];
+        for (int vw = 0; vw < visibleNodes.length; ++vw) {
+            long vword = visibleNodes[vw];
+            while (vword != 0) {
+                int row = ((vw << 6) + Long.numberOfTrailingZeros(vword)) * numHidden;
+                vword &= vword - 1;
+                energy -= Kernels.INSTANCE.maskedSum(weights, row, hiddenNodes, numHidden);
             }
         }
         return energy;
@@ -249,4 +577,46 @@ public class SimpleRBM implements Serializable {
     protected static float logsig(float x, float annealingRate) {
         return 1 / (1 + ((float) Math.exp(-x / annealingRate)));
     }
+
+    /*
+     * Method: logsig
+     *
+     * bulk form of logsig for a whole layer of weighted sums, using this
+     * RBM's sigmoid implementation (see Sigmoid).  out may be the same array
+     * as in.
+     */
+    public void logsig(float[] in, float[] out, float annealingRate) {
+        sigmoid.apply(in, out, in.length, annealingRate);
+    }
+
+    public void logsig(float[] in, float[] out, int count, float annealingRate) {
+        sigmoid.apply(in, out, count, annealingRate);
+    }
+
+    public Sigmoid getSigmoid() {
+        return sigmoid;
+    }
+
+    /**
+     * @param sigmoid - the logistic function implementation used when
+     *                  activating nodes; trades accuracy for speed
+     */
+    public void setSigmoid(Sigmoid sigmoid) {
+        this.sigmoid = sigmoid;
+    }
+
+    /*
+     * Method: readObject
+     *
+     * the transposed weights are not serialized; rebuild them on load
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        rand = new XoroshiroSampler();
+        visibleSums = new float[numVisible];
+        hiddenSums = new float[numHidden];
+        rowOffsets = new int[Math.max(numVisible, numHidden)];
+        rebuildTranspose();
+    }
 }
@@ -0,0 +1,151 @@
+package rbm;
+
+/*
+ * Class: SparseDataSource
+ *
+ * An IndexedDataSource over rows held in compressed sparse row (CSR) form:
+ * the active columns of row r are columns[rowStart[r]] up to, but not
+ * including, columns[rowStart[r + 1]].  A row costs 4 bytes per active
+ * column instead of a bit per column, which for wide, mostly empty rows is
+ * far less than even the packed form.
+ *
+ * Rows are expanded into packed bits as they are read, so training needs
+ * nothing special to use them; the trainers' kernels then only visit the
+ * weight rows of the active columns (see SimpleRBM.computeHiddenSums and
+ * Optimizer).
+ */
+public class SparseDataSource implements IndexedDataSource {
+
+    private final int[] rowStart;
+    private final int[] columns;
+    private final int width;
+
+    /**
+     * @param rowStart - one more entry than there are rows; rowStart[r] is
+     *                   where row r's columns begin, so the entries never
+     *                   decrease
+     * @param columns - the active columns of every row, in row order, each
+     *                  in [0, width); the arrays are used as they are, not
+     *                  copied, and checked once here
+     * @param width - the number of columns in each row
+     */
+    public SparseDataSource(int[] rowStart, int[] columns, int width) {
+        if (width < 0) {
+            throw new IllegalArgumentException("width cannot be negative, got " + width);
+        }
+        if (rowStart.length == 0 || rowStart[0] != 0
+                || rowStart[rowStart.length - 1] > columns.length) {
+            throw new IllegalArgumentException("row starts do not fit the columns");
+        }
+        for (int r = 1; r < rowStart.length; r++) {
+            if (rowStart[r] < rowStart[r - 1]) {
+                throw new IllegalArgumentException("row " + (r - 1) + " ends before it starts");
+            }
+        }
+        for (int n = 0; n < rowStart[rowStart.length - 1]; n++) {
+            if (columns[n] < 0 || columns[n] >= width) {
+                throw new IllegalArgumentException("column " + columns[n]
+                        + " is outside a row of width " + width);
+            }
+        }
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.width = width;
+    }
+
+    /**
+     * @param rows - unpacked rows; columns at or beyond width are dropped
+     * @param width - the number of columns in each row
+     * @return - a source holding the active columns of the rows
+     */
+    public static SparseDataSource pack(boolean[][] rows, int width) {
+        int[] rowStart = new int[rows.length + 1];
+        for (int r = 0; r < rows.length; r++) {
+            int active = 0;
+            for (int i = 0; i < rows[r].length && i < width; i++) {
+                if (rows[r][i]) {
+                    active++;
+                }
+            }
+            rowStart[r + 1] = rowStart[r] + active;
+        }
+        int[] columns = new int[rowStart[rows.length]];
+        for (int r = 0; r < rows.length; r++) {
+            int n = rowStart[r];
+            for (int i = 0; i < rows[r].length && i < width; i++) {
+                if (rows[r][i]) {
+                    columns[n++] = i;
+                }
+            }
+        }
+        return new SparseDataSource(rowStart, columns, width);
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public long size() {
+        return rowStart.length - 1;
+    }
+
+    /**
+     * @return - the number of active columns in every row together
+     */
+    public long nonZeros() {
+        return rowStart[rowStart.length - 1];
+    }
+
+    /**
+     * @param index - the row
+     * @return - the number of active columns in the row
+     */
+    public int nonZeros(int index) {
+        return rowStart[index + 1] - rowStart[index];
+    }
+
+    /**
+     * @param index - the row
+     * @param out - receives the row's active columns, in the order they were
+     *              given; needs nonZeros(index) entries
+     * @return - the number of columns written
+     */
+    public int columns(int index, int[] out) {
+        int count = rowStart[index + 1] - rowStart[index];
+        System.arraycopy(columns, rowStart[index], out, 0, count);
+        return count;
+    }
+
+    @Override
+    public void row(int index, long[] row) {
+        int words = Bits.words(width);
+        for (int w = 0; w < words; w++) {
+            row[w] = 0;
+        }
+        for (int n = rowStart[index]; n < rowStart[index + 1]; n++) {
+            Bits.set(row, columns[n]);
+        }
+    }
+
+    @Override
+    public Cursor open() {
+        return new Cursor() {
+            private int next = 0;
+
+            @Override
+            public boolean next(long[] row) {
+                if (next == rowStart.length - 1) {
+                    return false;
+                }
+                row(next++, row);
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package rbm;
+
+/*
+ * Enum: StoppingMetric
+ *
+ * What a layer's convergence is judged by when early stopping is configured
+ * (see TrainingConfig.setPatience).  Both are measured on a fixed sample of
+ * rows every few epochs, and lower is better.
+ *
+ *   RECONSTRUCTION_ERROR  the mean squared difference between each row and
+ *                         the visible probabilities after sampling the
+ *                         hidden layer once; measured on held-out rows if
+ *                         there are any, otherwise on training rows
+ *   FREE_ENERGY_GAP       the mean free energy of held-out rows minus that of
+ *                         as many training rows.  It grows as the layer
+ *                         starts to overfit, so training stops once it has
+ *                         not fallen for a while.  Needs a validation split.
+ */
+public enum StoppingMetric {
+    RECONSTRUCTION_ERROR,
+    FREE_ENERGY_GAP
+}
@@ -0,0 +1,448 @@
+package rbm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Class: TrainingConfig
+ *
+ * Settings for SimpleLayeredRBM.layeredLearn.  The defaults reproduce the
+ * original behaviour: one input per weight update and five Gibbs cycles on a
+ * single thread.
+ */
+public class TrainingConfig {
+
+    private int batchSize = 1;   // inputs per weight update
+    private int gibbsSteps = 5;  // k in CD-k
+    private int threads = 1;     // workers each batch is split across
+    private Long seed = null;    // null means seed from the clock
+    private boolean asynchronous = false;
+    private int persistentChains = 0; // 0 means plain CD
+    private int shuffleWindow = 1 << 16; // rows shuffled together when streaming
+    private int prefetchRows = 1 << 10;  // rows read ahead per chunk
+    private CacheMode cacheMode = CacheMode.NONE;
+    private File cacheDirectory = null;  // null keeps caches in memory
+    private double validationFraction = 0; // rows held out from training
+    private int checkInterval = 5;       // epochs between convergence checks
+    private int patience = 0;            // 0 means never stop early
+    private double minImprovement = 0.01;
+    private StoppingMetric stoppingMetric = StoppingMetric.RECONSTRUCTION_ERROR;
+    private UpdateRule updateRule = UpdateRule.SGD;
+    private Float learningRate = null;   // null means the rule's default
+    private float learningRateDecay = 0; // 0 keeps the rate constant
+    private float momentum = 0.9f;
+    private float weightDecay = 0;
+    private boolean visibleBiasesFromData = false;
+    private File checkpointFile = null;  // null takes no checkpoints
+    private int checkpointEpochs = 1;    // 0 means not by epoch count
+    private long checkpointSeconds = 0;  // 0 means not by time
+    private final List<TrainingListener> listeners = new ArrayList<TrainingListener>();
+
+    public TrainingConfig() {
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize - the number of inputs whose contrastive divergence is
+     *                    accumulated before the weights are updated once
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getGibbsSteps() {
+        return gibbsSteps;
+    }
+
+    /**
+     * @param gibbsSteps - the number of visible/hidden cycles run between the
+     *                     positive and negative phase
+     */
+    public void setGibbsSteps(int gibbsSteps) {
+        if (gibbsSteps < 1) {
+            throw new IllegalArgumentException("need at least one Gibbs step");
+        }
+        this.gibbsSteps = gibbsSteps;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads - the number of workers each mini-batch is split across.
+     *                  Runs are only reproducible for the same seed and
+     *                  thread count.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least one thread");
+        }
+        this.threads = threads;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed - seeds the shuffling and sampling done during training, or
+     *               null for a different run every time
+     */
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * @param asynchronous - if true, each thread trains on its own shard of
+     *                       the inputs and writes its weight changes straight
+     *                       into the shared weights with no locking and no
+     *                       batches (see AsyncTrainer).  Best suited to sparse
+     *                       inputs; runs are not reproducible with more than
+     *                       one thread.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public int getPersistentChains() {
+        return persistentChains;
+    }
+
+    /**
+     * @param persistentChains - if positive, train with persistent contrastive
+     *                           divergence: the negative phase comes from this
+     *                           many fantasy chains that are kept between
+     *                           updates and advanced gibbsSteps (typically 1)
+     *                           per batch, instead of from chains restarted at
+     *                           the data.  Ignored by the asynchronous trainer.
+     */
+    public void setPersistentChains(int persistentChains) {
+        if (persistentChains < 0) {
+            throw new IllegalArgumentException("chain count cannot be negative");
+        }
+        this.persistentChains = persistentChains;
+    }
+
+    public int getShuffleWindow() {
+        return shuffleWindow;
+    }
+
+    /**
+     * @param shuffleWindow - the number of rows held in memory and shuffled
+     *                        together when training from a DataSource.
+     *                        Indexed sources no larger than this are fully
+     *                        permuted every epoch; bigger ones, and any
+     *                        streaming source, are shuffled within a window
+     *                        of this many rows.
+     */
+    public void setShuffleWindow(int shuffleWindow) {
+        if (shuffleWindow < 1) {
+            throw new IllegalArgumentException("shuffle window must be positive");
+        }
+        this.shuffleWindow = shuffleWindow;
+    }
+
+    public int getPrefetchRows() {
+        return prefetchRows;
+    }
+
+    /**
+     * @param prefetchRows - the number of rows a streaming source is read in
+     *                       at a time on the background prefetch thread
+     */
+    public void setPrefetchRows(int prefetchRows) {
+        if (prefetchRows < 1) {
+            throw new IllegalArgumentException("prefetch chunk must be positive");
+        }
+        this.prefetchRows = prefetchRows;
+    }
+
+    public CacheMode getCacheMode() {
+        return cacheMode;
+    }
+
+    /**
+     * @param cacheMode - whether, once a layer is trained, the data set is
+     *                    passed through it once and its hidden representation
+     *                    kept as the next layer's inputs, instead of pushing
+     *                    every input through all the lower layers again on
+     *                    every epoch (see CacheMode)
+     */
+    public void setCacheMode(CacheMode cacheMode) {
+        if (cacheMode == null) {
+            throw new IllegalArgumentException("cache mode cannot be null");
+        }
+        this.cacheMode = cacheMode;
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * @param cacheDirectory - where cached representations are spilled to
+     *                         temporary files, or null to keep them in memory
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public double getValidationFraction() {
+        return validationFraction;
+    }
+
+    /**
+     * @param validationFraction - the fraction of rows, chosen at random,
+     *                             held out of training and used only to
+     *                             measure convergence (see StoppingMetric).
+     *                             0 trains on every row.
+     */
+    public void setValidationFraction(double validationFraction) {
+        if (!(validationFraction >= 0 && validationFraction < 1)) {
+            throw new IllegalArgumentException("validation fraction must be in [0, 1)");
+        }
+        this.validationFraction = validationFraction;
+    }
+
+    public int getCheckInterval() {
+        return checkInterval;
+    }
+
+    /**
+     * @param checkInterval - the number of epochs between measurements of
+     *                        the stopping metric, and the length of the
+     *                        cool-down once a layer has plateaued
+     */
+    public void setCheckInterval(int checkInterval) {
+        if (checkInterval < 1) {
+            throw new IllegalArgumentException("check interval must be positive");
+        }
+        this.checkInterval = checkInterval;
+    }
+
+    public int getPatience() {
+        return patience;
+    }
+
+    /**
+     * @param patience - if positive, a layer stops training early once this
+     *                   many measurements in a row have not improved on the
+     *                   best one; the epoch count passed to layeredLearn
+     *                   becomes a limit (see EpochSchedule).  0 always runs
+     *                   every epoch.
+     */
+    public void setPatience(int patience) {
+        if (patience < 0) {
+            throw new IllegalArgumentException("patience cannot be negative");
+        }
+        this.patience = patience;
+    }
+
+    public double getMinImprovement() {
+        return minImprovement;
+    }
+
+    /**
+     * @param minImprovement - how much lower than the best so far, as a
+     *                         fraction of it, a measurement must be to count
+     *                         as an improvement
+     */
+    public void setMinImprovement(double minImprovement) {
+        if (!(minImprovement >= 0)) {
+            throw new IllegalArgumentException("minimum improvement cannot be negative");
+        }
+        this.minImprovement = minImprovement;
+    }
+
+    public StoppingMetric getStoppingMetric() {
+        return stoppingMetric;
+    }
+
+    /**
+     * @param stoppingMetric - what convergence is measured by (see
+     *                         StoppingMetric)
+     */
+    public void setStoppingMetric(StoppingMetric stoppingMetric) {
+        if (stoppingMetric == null) {
+            throw new IllegalArgumentException("stopping metric cannot be null");
+        }
+        this.stoppingMetric = stoppingMetric;
+    }
+
+    public UpdateRule getUpdateRule() {
+        return updateRule;
+    }
+
+    /**
+     * @param updateRule - how accumulated statistics change the weights
+     *                     (see UpdateRule).  Ignored by the asynchronous
+     *                     trainer.
+     */
+    public void setUpdateRule(UpdateRule updateRule) {
+        if (updateRule == null) {
+            throw new IllegalArgumentException("update rule cannot be null");
+        }
+        this.updateRule = updateRule;
+    }
+
+    /**
+     * @return the configured learning rate, or the update rule's default
+     */
+    public float getLearningRate() {
+        return learningRate != null ? learningRate : updateRule.getDefaultRate();
+    }
+
+    /**
+     * @param learningRate - the size of the steps taken, or null for the
+     *                       update rule's default
+     */
+    public void setLearningRate(Float learningRate) {
+        if (learningRate != null && !(learningRate > 0)) {
+            throw new IllegalArgumentException("learning rate must be positive");
+        }
+        this.learningRate = learningRate;
+    }
+
+    public float getLearningRateDecay() {
+        return learningRateDecay;
+    }
+
+    /**
+     * @param learningRateDecay - shrinks the rate as each layer trains: epoch
+     *                            e uses rate / (1 + learningRateDecay * e)
+     */
+    public void setLearningRateDecay(float learningRateDecay) {
+        if (!(learningRateDecay >= 0)) {
+            throw new IllegalArgumentException("learning rate decay cannot be negative");
+        }
+        this.learningRateDecay = learningRateDecay;
+    }
+
+    public float getMomentum() {
+        return momentum;
+    }
+
+    /**
+     * @param momentum - the fraction of the last step carried into the next
+     *                   one by UpdateRule.MOMENTUM
+     */
+    public void setMomentum(float momentum) {
+        if (!(momentum >= 0 && momentum < 1)) {
+            throw new IllegalArgumentException("momentum must be in [0, 1)");
+        }
+        this.momentum = momentum;
+    }
+
+    public float getWeightDecay() {
+        return weightDecay;
+    }
+
+    /**
+     * @param weightDecay - the L2 penalty: over an epoch every weight other
+     *                      than the biases moves towards 0 by about
+     *                      rate * weightDecay of itself
+     */
+    public void setWeightDecay(float weightDecay) {
+        if (!(weightDecay >= 0)) {
+            throw new IllegalArgumentException("weight decay cannot be negative");
+        }
+        this.weightDecay = weightDecay;
+    }
+
+    public boolean isVisibleBiasesFromData() {
+        return visibleBiasesFromData;
+    }
+
+    /**
+     * @param visibleBiasesFromData - if true, the first layer's visible
+     *                                biases are set from how often each
+     *                                input is on before training starts.
+     *                                Recommended for sparse inputs (see
+     *                                SparseDataSource): reconstructions then
+     *                                stay sparse, and so do the negative
+     *                                phase and the weight update.  Leave
+     *                                false when continuing to train a
+     *                                network, as it overwrites the biases.
+     */
+    public void setVisibleBiasesFromData(boolean visibleBiasesFromData) {
+        this.visibleBiasesFromData = visibleBiasesFromData;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * @param checkpointFile - where training writes checkpoints to, in the
+     *                         background, replacing the last one (see
+     *                         SimpleLayeredRBM.resume), or null for none
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public int getCheckpointEpochs() {
+        return checkpointEpochs;
+    }
+
+    /**
+     * @param checkpointEpochs - a checkpoint is taken at the end of an epoch
+     *                           once this many epochs have passed since the
+     *                           last one; 0 takes them by time alone
+     */
+    public void setCheckpointEpochs(int checkpointEpochs) {
+        if (checkpointEpochs < 0) {
+            throw new IllegalArgumentException("checkpoint epochs cannot be negative");
+        }
+        this.checkpointEpochs = checkpointEpochs;
+    }
+
+    public long getCheckpointSeconds() {
+        return checkpointSeconds;
+    }
+
+    /**
+     * @param checkpointSeconds - a checkpoint is also taken at the end of an
+     *                            epoch once this many seconds have passed
+     *                            since the last one; 0 takes them by epoch
+     *                            count alone
+     */
+    public void setCheckpointSeconds(long checkpointSeconds) {
+        if (checkpointSeconds < 0) {
+            throw new IllegalArgumentException("checkpoint seconds cannot be negative");
+        }
+        this.checkpointSeconds = checkpointSeconds;
+    }
+
+    /**
+     * @param listener - told about every layer and epoch of training (see
+     *                   TrainingListener)
+     */
+    public void addListener(TrainingListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(TrainingListener listener) {
+        listeners.remove(listener);
+    }
+
+    public List<TrainingListener> getListeners() {
+        return Collections.unmodifiableList(listeners);
+    }
+}
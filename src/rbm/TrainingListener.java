@@ -0,0 +1,32 @@
+package rbm;
+
+/*
+ * Interface: TrainingListener
+ *
+ * Receives progress reports from SimpleLayeredRBM.layeredLearn (see
+ * TrainingConfig.addListener).  Calls are made on the training thread
+ * between epochs, so a slow listener slows training down.
+ */
+public interface TrainingListener {
+
+    /**
+     * @param layer - the layer about to be trained
+     * @param numEpochs - the number of epochs it will be trained for, or
+     *                    with early stopping the most it can be
+     */
+    default void layerStarted(int layer, int numEpochs) {
+    }
+
+    /**
+     * @param metrics - timings, reconstruction error and weight norm for the
+     *                  epoch just finished
+     */
+    default void epochFinished(EpochMetrics metrics) {
+    }
+
+    /**
+     * @param layer - the layer whose training just finished
+     */
+    default void layerFinished(int layer) {
+    }
+}
@@ -0,0 +1,112 @@
+package rbm;
+
+import java.util.List;
+
+/*
+ * Class: TrainingMonitor
+ *
+ * Collects the trainers' per-epoch numbers and hands them to the config's
+ * listeners and to Flight Recorder.  When there are no listeners and no
+ * recording is running, isActive() is false and the trainers skip the
+ * measurements that cost anything beyond a few clock reads per batch.
+ */
+class TrainingMonitor {
+
+    private final List<TrainingListener> listeners;
+    private EpochEvent event;
+    private long epochStart;
+
+    TrainingMonitor(TrainingConfig config) {
+        this.listeners = config.getListeners();
+    }
+
+    /*
+     * Method: isActive
+     *
+     * true if anyone will see the reconstruction error and weight norm
+     */
+    boolean isActive() {
+        return !listeners.isEmpty() || (event != null && event.isEnabled());
+    }
+
+    void layerStarted(int layer, int numEpochs) {
+        for (TrainingListener listener : listeners) {
+            listener.layerStarted(layer, numEpochs);
+        }
+    }
+
+    void epochStarted() {
+        event = new EpochEvent();
+        event.begin();
+        epochStart = System.nanoTime();
+    }
+
+    /*
+     * Method: epochFinished
+     *
+     * reports an epoch; errorSum is the summed per-input reconstruction
+     * error over errorCount inputs, and convergence the stopping metric if
+     * it was measured (see EpochSchedule)
+     */
+    void epochFinished(int layer, int epoch, long samples, long positiveNanos, long gibbsNanos,
+            long updateNanos, double errorSum, long errorCount, double convergence,
+            SimpleRBM rbm) {
+        long elapsed = System.nanoTime() - epochStart;
+        event.end();
+        if (!isActive()) {
+            return;
+        }
+        double error = errorCount == 0 ? Double.NaN : errorSum / errorCount;
+        EpochMetrics metrics = new EpochMetrics(layer, epoch, samples, elapsed, positiveNanos,
+                gibbsNanos, updateNanos, error, weightNorm(rbm), rbm.annealingRate, convergence);
+
+        if (event.shouldCommit()) {
+            event.layer = layer;
+            event.epoch = epoch;
+            event.samples = samples;
+            event.samplesPerSecond = metrics.getSamplesPerSecond();
+            event.positiveNanos = positiveNanos;
+            event.gibbsNanos = gibbsNanos;
+            event.updateNanos = updateNanos;
+            event.reconstructionError = error;
+            event.weightNorm = metrics.getWeightNorm();
+            event.convergence = convergence;
+            event.commit();
+        }
+        for (TrainingListener listener : listeners) {
+            listener.epochFinished(metrics);
+        }
+    }
+
+    void layerFinished(int layer) {
+        for (TrainingListener listener : listeners) {
+            listener.layerFinished(layer);
+        }
+    }
+
+    private static double weightNorm(SimpleRBM rbm) {
+        double sum = 0;
+        for (float w : rbm.weights) {
+            sum += w * w;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /*
+     * Method: mismatch
+     *
+     * the fraction of the first width units that differ between two packed
+     * rows
+     */
+    static double mismatch(long[] data, long[] reconstruction, int width) {
+        int differ = 0;
+        int full = width >>> 6;
+        for (int w = 0; w < full; w++) {
+            differ += Long.bitCount(data[w] ^ reconstruction[w]);
+        }
+        if ((width & 63) != 0) {
+            differ += Long.bitCount((data[full] ^ reconstruction[full]) & ((1L << width) - 1));
+        }
+        return (double) differ / width;
+    }
+}
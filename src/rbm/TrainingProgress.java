@@ -0,0 +1,213 @@
+package rbm;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Class: TrainingProgress
+ *
+ * Where a layeredLearn run stands at the end of an epoch, and everything
+ * besides the weights that the rest of the run depends on: the epoch count
+ * and seed it was started with, the layer in training and its
+ * EpochSchedule, the trainer's generator, the generator as it stood at the
+ * start of each layer so far (from which the layer's RepresentationCache is
+ * rebuilt), the order the inputs were last shuffled into, the persistent
+ * chains, the Optimizer's state and, with a probability cache, how often
+ * each cache row had been read.
+ *
+ * A checkpoint stores it as training state entries of the layer in
+ * training (see ModelFile): the scalars and generators as STATE_PROGRESS,
+ * every long split into two ints, low half first; the order as STATE_ORDER;
+ * the chains as STATE_CHAINS, their count followed by each chain's visible
+ * and then hidden words; the optimizer's arrays as STATE_VELOCITY and
+ * STATE_MEAN_SQUARE; the read counts as STATE_READS, for each layer up to
+ * the one in training the length of its counts, or -1 for none, followed by
+ * the counts.  The arrays are copies, so a checkpoint can be written
+ * while training goes on.
+ */
+final class TrainingProgress {
+
+    static final int MINI_BATCH = 0;
+    static final int ASYNCHRONOUS = 1;
+
+    int trainer;            // MINI_BATCH or ASYNCHRONOUS
+    int numEpochs;
+    long seed;
+    int layer;
+    long[] schedule;        // EpochSchedule.getState
+    int steps;              // Optimizer.getSteps
+    long[] rand;            // XoroshiroSampler.getState
+    long[][] layerStarts;   // the generator before each layer's set-up, up to layer
+    int[] order;            // null if the order is not kept between epochs
+    long[][] chainVisible;  // null for plain CD
+    long[][] chainHidden;
+    float[] velocity;       // null if the rule keeps none
+    float[] meanSquare;
+    int[][] reads;          // RepresentationCache.getReads of each layer's input, up to
+                            // layer, as its training ended; null without a probability cache
+
+    /*
+     * Method: addTo
+     *
+     * adds the entries to the image of the layer in training
+     */
+    void addTo(ModelFile.LayerImage image) {
+        int[] ints = new int[6 + 2 * (1 + schedule.length + rand.length + 2 * layerStarts.length)];
+        int at = 0;
+        ints[at++] = trainer;
+        ints[at++] = numEpochs;
+        ints[at++] = layer;
+        ints[at++] = steps;
+        ints[at++] = schedule.length;
+        ints[at++] = layerStarts.length;
+        at = putLong(ints, at, seed);
+        for (long value : schedule) {
+            at = putLong(ints, at, value);
+        }
+        for (long value : rand) {
+            at = putLong(ints, at, value);
+        }
+        for (long[] start : layerStarts) {
+            at = putLong(ints, at, start[0]);
+            at = putLong(ints, at, start[1]);
+        }
+        image.addState(ModelFile.STATE_PROGRESS, ints);
+
+        if (order != null) {
+            image.addState(ModelFile.STATE_ORDER, order);
+        }
+        if (chainVisible != null) {
+            int visibleWords = chainVisible[0].length;
+            int hiddenWords = chainHidden[0].length;
+            int[] chains = new int[1 + 2 * chainVisible.length * (visibleWords + hiddenWords)];
+            chains[0] = chainVisible.length;
+            at = 1;
+            for (int c = 0; c < chainVisible.length; c++) {
+                for (long word : chainVisible[c]) {
+                    at = putLong(chains, at, word);
+                }
+                for (long word : chainHidden[c]) {
+                    at = putLong(chains, at, word);
+                }
+            }
+            image.addState(ModelFile.STATE_CHAINS, chains);
+        }
+        if (velocity != null) {
+            image.addState(ModelFile.STATE_VELOCITY, velocity);
+        }
+        if (meanSquare != null) {
+            image.addState(ModelFile.STATE_MEAN_SQUARE, meanSquare);
+        }
+        if (reads != null) {
+            int length = reads.length;
+            for (int[] counts : reads) {
+                length += counts == null ? 0 : counts.length;
+            }
+            int[] all = new int[length];
+            at = 0;
+            for (int[] counts : reads) {
+                if (counts == null) {
+                    all[at++] = -1;
+                } else {
+                    all[at++] = counts.length;
+                    System.arraycopy(counts, 0, all, at, counts.length);
+                    at += counts.length;
+                }
+            }
+            image.addState(ModelFile.STATE_READS, all);
+        }
+    }
+
+    /*
+     * Method: read
+     *
+     * the progress saved in a checkpoint, or null if the file has none
+     */
+    static TrainingProgress read(ModelFile file) throws IOException {
+        for (int l = 0; l < file.getNumLayers(); l++) {
+            int[] ints = file.getStateInts(l, ModelFile.STATE_PROGRESS);
+            if (ints == null) {
+                continue;
+            }
+            TrainingProgress progress = new TrainingProgress();
+            try {
+                int at = 0;
+                progress.trainer = ints[at++];
+                progress.numEpochs = ints[at++];
+                progress.layer = ints[at++];
+                progress.steps = ints[at++];
+                progress.schedule = new long[ints[at++]];
+                progress.layerStarts = new long[ints[at++]][2];
+                progress.seed = getLong(ints, at);
+                at += 2;
+                for (int i = 0; i < progress.schedule.length; i++, at += 2) {
+                    progress.schedule[i] = getLong(ints, at);
+                }
+                progress.rand = new long[] {getLong(ints, at), getLong(ints, at + 2)};
+                at += 4;
+                for (long[] start : progress.layerStarts) {
+                    start[0] = getLong(ints, at);
+                    start[1] = getLong(ints, at + 2);
+                    at += 4;
+                }
+            } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new IOException("the training progress of layer " + l + " is corrupt");
+            }
+            if (progress.layer != l || progress.layerStarts.length != l + 1) {
+                throw new IOException("the training progress of layer " + l + " is corrupt");
+            }
+
+            progress.order = file.getStateInts(l, ModelFile.STATE_ORDER);
+            int[] chains = file.getStateInts(l, ModelFile.STATE_CHAINS);
+            if (chains != null) {
+                int visibleWords = Bits.words(file.getNumVisible(l));
+                int hiddenWords = Bits.words(file.getNumHidden(l));
+                int count = chains.length == 0 ? -1 : chains[0];
+                if (count < 0 || chains.length != 1 + 2 * count * (visibleWords + hiddenWords)) {
+                    throw new IOException("the persistent chains of layer " + l + " are corrupt");
+                }
+                progress.chainVisible = new long[count][visibleWords];
+                progress.chainHidden = new long[count][hiddenWords];
+                int at = 1;
+                for (int c = 0; c < count; c++) {
+                    for (int w = 0; w < visibleWords; w++, at += 2) {
+                        progress.chainVisible[c][w] = getLong(chains, at);
+                    }
+                    for (int w = 0; w < hiddenWords; w++, at += 2) {
+                        progress.chainHidden[c][w] = getLong(chains, at);
+                    }
+                }
+            }
+            progress.velocity = file.getStateFloats(l, ModelFile.STATE_VELOCITY);
+            progress.meanSquare = file.getStateFloats(l, ModelFile.STATE_MEAN_SQUARE);
+            int[] all = file.getStateInts(l, ModelFile.STATE_READS);
+            if (all != null) {
+                progress.reads = new int[l + 1][];
+                int at = 0;
+                for (int r = 0; r <= l; r++) {
+                    int length = at < all.length ? all[at++] : -2;
+                    if (length < -1 || length > all.length - at) {
+                        throw new IOException("the cache read counts of layer " + l
+                                + " are corrupt");
+                    }
+                    if (length >= 0) {
+                        progress.reads[r] = Arrays.copyOfRange(all, at, at + length);
+                        at += length;
+                    }
+                }
+            }
+            return progress;
+        }
+        return null;
+    }
+
+    private static int putLong(int[] ints, int at, long value) {
+        ints[at] = (int) value;
+        ints[at + 1] = (int) (value >>> 32);
+        return at + 2;
+    }
+
+    private static long getLong(int[] ints, int at) {
+        return (ints[at] & 0xffffffffL) | ((long) ints[at + 1] << 32);
+    }
+}
@@ -0,0 +1,39 @@
+package rbm;
+
+/*
+ * Enum: UpdateRule
+ *
+ * How the contrastive divergence accumulated over a batch is turned into a
+ * weight change (see TrainingConfig.setUpdateRule).  The gradient g is the
+ * batch's positive minus negative statistics divided by the number of
+ * inputs, less any weight decay.
+ *
+ *   SGD       w += rate * g, the original rule
+ *   MOMENTUM  v = momentum * v + rate * g; w += v.  Steps in a consistent
+ *             direction grow towards rate / (1 - momentum) while noise
+ *             cancels out, so fewer epochs are needed.
+ *   ADAM      per-weight steps of about rate, scaled by running averages of
+ *             g and g^2 (Kingma and Ba).  The rate is a step size per batch
+ *             rather than per epoch, so it is much smaller by default.
+ *
+ * The asynchronous trainer has no batches to keep state across and always
+ * uses SGD.
+ */
+public enum UpdateRule {
+    SGD(SimpleRBM.LEARNING_RATE),
+    MOMENTUM(SimpleRBM.LEARNING_RATE),
+    ADAM(0.001f);
+
+    private final float defaultRate;
+
+    UpdateRule(float defaultRate) {
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * @return the learning rate used when none is configured
+     */
+    public float getDefaultRate() {
+        return defaultRate;
+    }
+}
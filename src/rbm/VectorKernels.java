@@ -0,0 +1,363 @@
+package rbm;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * Class: VectorKernels
+ *
+ * Kernels on the Java Vector API (jdk.incubator.vector), using the
+ * platform's preferred float species: 16 lanes with AVX-512, 8 with AVX2.
+ * Each loop runs a vector of lanes at a time and finishes the last
+ * n % lanes elements with scalar code.
+ *
+ * The masked kernels take their lane masks straight from the packed unit
+ * states.  A species has at most 16 float lanes, which divides 64, so the
+ * lanes of one vector always come from a single word; chunks whose bits are
+ * all clear are skipped without touching memory.  The mask is built by
+ * testing a broadcast of the chunk's bits against each lane's own bit, as
+ * VectorMask.fromLong is not compiled to vector instructions on JDK 17 and
+ * is slower than the scalar loop.
+ *
+ * sumRows lists the rows' offsets in the caller's scratch first, then runs
+ * down them for four vectors of columns at a time, keeping the sums in
+ * registers rather than storing and reloading them for every row.  The
+ * batched sumRows also splits the columns into blocks of TILE, and within
+ * each block of 64 rows and TILE columns does the same for one row of sums
+ * after another, reloading the sums once per block.
+ *
+ * The int8 and fp16 rows are loaded as narrower vectors and widened to one
+ * float per lane; fp16 is decoded as Kernels.halfToFloat does.
+ *
+ * Only loaded through Kernels, when the vector module is present.
+ */
+final class VectorKernels extends Kernels {
+
+    // columns summed at a time by the batched sumRows: 64 rows of weights
+    // this wide (64K) stay in the L2 cache while every row of sums takes them
+    private static final int TILE = 256;
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int LANE_BITS = (1 << LANES) - 1;
+    private static final VectorSpecies<Integer> INT_SPECIES = SPECIES.withLanes(int.class);
+    private static final IntVector LANE_BIT = IntVector.broadcast(INT_SPECIES, 1)
+            .lanewise(VectorOperators.LSHL, IntVector.zero(INT_SPECIES).addIndex(1));
+    // the narrow rows are read a vector of LANES values at a time; for
+    // 4-lane floats the smallest byte vector holds 8, of which half are used
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, LANES * 8)));
+    private static final VectorSpecies<Short> SHORT_SPECIES = VectorSpecies.of(short.class,
+            VectorShape.forBitSize(Math.max(64, LANES * 16)));
+
+    @Override
+    String name() {
+        return "vector (" + LANES + " lanes)";
+    }
+
+    @Override
+    void addRow(float[] src, int from, float[] dst, int n) {
+        int k = 0;
+        for (int upper = SPECIES.loopBound(n); k < upper; k += LANES) {
+            FloatVector.fromArray(SPECIES, dst, k)
+                    .add(FloatVector.fromArray(SPECIES, src, from + k))
+                    .intoArray(dst, k);
+        }
+        for (; k < n; k++) {
+            dst[k] += src[from + k];
+        }
+    }
+
+    @Override
+    void sumRows(float[] src, int stride, long[] rows, int[] offsets, float[] dst, int n) {
+        int count = 0;
+        for (int w = 0; w < rows.length; w++) {
+            long word = rows[w];
+            while (word != 0) {
+                offsets[count++] = ((w << 6) + Long.numberOfTrailingZeros(word)) * stride;
+                word &= word - 1;
+            }
+        }
+        int k = 0;
+        // four vectors of sums at a time, kept in registers while every row
+        // is added to them, so each weight is loaded once and nothing else is
+        for (int upper = n - 4 * LANES; k <= upper; k += 4 * LANES) {
+            FloatVector s0 = FloatVector.zero(SPECIES);
+            FloatVector s1 = s0;
+            FloatVector s2 = s0;
+            FloatVector s3 = s0;
+            for (int r = 0; r < count; r++) {
+                int from = offsets[r] + k;
+                s0 = s0.add(FloatVector.fromArray(SPECIES, src, from));
+                s1 = s1.add(FloatVector.fromArray(SPECIES, src, from + LANES));
+                s2 = s2.add(FloatVector.fromArray(SPECIES, src, from + 2 * LANES));
+                s3 = s3.add(FloatVector.fromArray(SPECIES, src, from + 3 * LANES));
+            }
+            s0.intoArray(dst, k);
+            s1.intoArray(dst, k + LANES);
+            s2.intoArray(dst, k + 2 * LANES);
+            s3.intoArray(dst, k + 3 * LANES);
+        }
+        for (int upper = SPECIES.loopBound(n); k < upper; k += LANES) {
+            FloatVector sum = FloatVector.zero(SPECIES);
+            for (int r = 0; r < count; r++) {
+                sum = sum.add(FloatVector.fromArray(SPECIES, src, offsets[r] + k));
+            }
+            sum.intoArray(dst, k);
+        }
+        for (; k < n; k++) {
+            float sum = 0;
+            for (int r = 0; r < count; r++) {
+                sum += src[offsets[r] + k];
+            }
+            dst[k] = sum;
+        }
+    }
+
+    @Override
+    void sumRows(float[] src, int stride, long[][] rows, int from, int to, float[][] dst,
+            int n) {
+        for (int b = from; b < to; b++) {
+            Arrays.fill(dst[b], 0, n, 0);
+        }
+        int[] offsets = new int[64];
+        for (int start = 0; start < n; start += TILE) {
+            int end = Math.min(n, start + TILE);
+            for (int w = 0; w < rows[from].length; w++) {
+                for (int b = from; b < to; b++) {
+                    long word = rows[b][w];
+                    int count = 0;
+                    while (word != 0) {
+                        offsets[count++] = ((w << 6) + Long.numberOfTrailingZeros(word)) * stride;
+                        word &= word - 1;
+                    }
+                    if (count > 0) {
+                        addRows(src, offsets, count, dst[b], start, end);
+                    }
+                }
+            }
+        }
+    }
+
+    // dst[k] += the sum of src[offsets[r] + k] over r < count, in order of r,
+    // for k in [start, end), keeping four vectors of sums in registers
+    private static void addRows(float[] src, int[] offsets, int count, float[] dst,
+            int start, int end) {
+        int k = start;
+        for (int upper = end - 4 * LANES; k <= upper; k += 4 * LANES) {
+            FloatVector s0 = FloatVector.fromArray(SPECIES, dst, k);
+            FloatVector s1 = FloatVector.fromArray(SPECIES, dst, k + LANES);
+            FloatVector s2 = FloatVector.fromArray(SPECIES, dst, k + 2 * LANES);
+            FloatVector s3 = FloatVector.fromArray(SPECIES, dst, k + 3 * LANES);
+            for (int r = 0; r < count; r++) {
+                int from = offsets[r] + k;
+                s0 = s0.add(FloatVector.fromArray(SPECIES, src, from));
+                s1 = s1.add(FloatVector.fromArray(SPECIES, src, from + LANES));
+                s2 = s2.add(FloatVector.fromArray(SPECIES, src, from + 2 * LANES));
+                s3 = s3.add(FloatVector.fromArray(SPECIES, src, from + 3 * LANES));
+            }
+            s0.intoArray(dst, k);
+            s1.intoArray(dst, k + LANES);
+            s2.intoArray(dst, k + 2 * LANES);
+            s3.intoArray(dst, k + 3 * LANES);
+        }
+        for (int upper = end - LANES; k <= upper; k += LANES) {
+            FloatVector sum = FloatVector.fromArray(SPECIES, dst, k);
+            for (int r = 0; r < count; r++) {
+                sum = sum.add(FloatVector.fromArray(SPECIES, src, offsets[r] + k));
+            }
+            sum.intoArray(dst, k);
+        }
+        for (; k < end; k++) {
+            float sum = dst[k];
+            for (int r = 0; r < count; r++) {
+                sum += src[offsets[r] + k];
+            }
+            dst[k] = sum;
+        }
+    }
+
+    @Override
+    void addScaledRow(float[] src, int from, float scale, float[] dst, int n) {
+        int k = 0;
+        for (int upper = SPECIES.loopBound(n); k < upper; k += LANES) {
+            FloatVector.fromArray(SPECIES, dst, k)
+                    .add(FloatVector.fromArray(SPECIES, src, from + k).mul(scale))
+                    .intoArray(dst, k);
+        }
+        for (; k < n; k++) {
+            dst[k] += scale * src[from + k];
+        }
+    }
+
+    @Override
+    void addScaledRow(byte[] src, int from, float scale, float[] dst, int n) {
+        int k = 0;
+        for (int read = Math.max(LANES, BYTE_SPECIES.length()); k + read <= n; k += LANES) {
+            FloatVector row = (FloatVector) ByteVector.fromArray(BYTE_SPECIES, src, from + k)
+                    .convertShape(VectorOperators.B2F, SPECIES, 0);
+            FloatVector.fromArray(SPECIES, dst, k).add(row.mul(scale)).intoArray(dst, k);
+        }
+        for (; k < n; k++) {
+            dst[k] += scale * src[from + k];
+        }
+    }
+
+    @Override
+    void addScaledHalfRow(short[] src, int from, float scale, float[] dst, int n) {
+        int k = 0;
+        for (int read = Math.max(LANES, SHORT_SPECIES.length()); k + read <= n; k += LANES) {
+            IntVector half = (IntVector) ShortVector.fromArray(SHORT_SPECIES, src, from + k)
+                    .convertShape(VectorOperators.S2I, INT_SPECIES, 0);
+            FloatVector row = half.and(0x8000).lanewise(VectorOperators.LSHL, 16)
+                    .or(half.and(0x7fff).lanewise(VectorOperators.LSHL, 13))
+                    .reinterpretAsFloats().mul(0x1p112f);
+            FloatVector.fromArray(SPECIES, dst, k).add(row.mul(scale)).intoArray(dst, k);
+        }
+        for (; k < n; k++) {
+            dst[k] += scale * halfToFloat(src[from + k]);
+        }
+    }
+
+    @Override
+    float maskedSum(float[] src, int from, long[] mask, int n) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int k = 0;
+        for (int upper = SPECIES.loopBound(n); k < upper; k += LANES) {
+            int bits = (int) (mask[k >>> 6] >>> (k & 63)) & LANE_BITS;
+            if (bits != 0) {
+                sum = sum.add(FloatVector.fromArray(SPECIES, src, from + k), lanes(bits));
+            }
+        }
+        float total = sum.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++) {
+            if ((mask[k >>> 6] & (1L << k)) != 0) {
+                total += src[from + k];
+            }
+        }
+        return total;
+    }
+
+    @Override
+    void addMasked(float[] dst, int from, long[] mask, int n, float amount) {
+        int k = 0;
+        for (int upper = SPECIES.loopBound(n); k < upper; k += LANES) {
+            int bits = (int) (mask[k >>> 6] >>> (k & 63)) & LANE_BITS;
+            if (bits != 0) {
+                FloatVector.fromArray(SPECIES, dst, from + k)
+                        .add(amount, lanes(bits))
+                        .intoArray(dst, from + k);
+            }
+        }
+        for (; k < n; k++) {
+            if ((mask[k >>> 6] & (1L << k)) != 0) {
+                dst[from + k] += amount;
+            }
+        }
+    }
+
+    @Override
+    void sgdRow(float[] w, float[] pos, float[] neg, int from, int n, float rate,
+            int numInputs, float decay) {
+        float inputs = numInputs;
+        int k = from;
+        for (int upper = from + SPECIES.loopBound(n); k < upper; k += LANES) {
+            FloatVector x = FloatVector.fromArray(SPECIES, w, k)
+                    .add(FloatVector.fromArray(SPECIES, pos, k).mul(rate).div(inputs))
+                    .sub(FloatVector.fromArray(SPECIES, neg, k).mul(rate).div(inputs));
+            if (decay != 0) {
+                x = x.sub(x.mul(decay));
+            }
+            x.intoArray(w, k);
+            clear(pos, neg, k);
+        }
+        for (; k < from + n; k++) {
+            float x = w[k];
+            x += (rate * pos[k] / numInputs);
+            x -= (rate * neg[k] / numInputs);
+            if (decay != 0) {
+                x -= decay * x;
+            }
+            w[k] = x;
+            pos[k] = 0;
+            neg[k] = 0;
+        }
+    }
+
+    @Override
+    void momentumRow(float[] w, float[] v, float[] pos, float[] neg, int from, int n,
+            float momentum, float scale, float decay) {
+        int k = from;
+        for (int upper = from + SPECIES.loopBound(n); k < upper; k += LANES) {
+            FloatVector x = FloatVector.fromArray(SPECIES, w, k);
+            FloatVector step = FloatVector.fromArray(SPECIES, v, k).mul(momentum)
+                    .add(FloatVector.fromArray(SPECIES, pos, k)
+                            .sub(FloatVector.fromArray(SPECIES, neg, k)).mul(scale))
+                    .sub(x.mul(decay));
+            step.intoArray(v, k);
+            x.add(step).intoArray(w, k);
+            clear(pos, neg, k);
+        }
+        for (; k < from + n; k++) {
+            float x = w[k];
+            float step = momentum * v[k] + scale * (pos[k] - neg[k]) - decay * x;
+            v[k] = step;
+            w[k] = x + step;
+            pos[k] = 0;
+            neg[k] = 0;
+        }
+    }
+
+    @Override
+    void adamRow(float[] w, float[] m, float[] s, float[] pos, float[] neg, int from, int n,
+            float beta1, float beta2, float epsilon, float step, float inverse, float decay) {
+        float keep1 = 1 - beta1;
+        float keep2 = 1 - beta2;
+        int k = from;
+        for (int upper = from + SPECIES.loopBound(n); k < upper; k += LANES) {
+            FloatVector x = FloatVector.fromArray(SPECIES, w, k);
+            FloatVector g = FloatVector.fromArray(SPECIES, pos, k)
+                    .sub(FloatVector.fromArray(SPECIES, neg, k)).mul(inverse)
+                    .sub(x.mul(decay));
+            FloatVector mk = FloatVector.fromArray(SPECIES, m, k).mul(beta1).add(g.mul(keep1));
+            FloatVector sk = FloatVector.fromArray(SPECIES, s, k).mul(beta2)
+                    .add(g.mul(keep2).mul(g));
+            mk.intoArray(m, k);
+            sk.intoArray(s, k);
+            x.add(mk.mul(step).div(sk.lanewise(VectorOperators.SQRT).add(epsilon)))
+                    .intoArray(w, k);
+            clear(pos, neg, k);
+        }
+        for (; k < from + n; k++) {
+            float x = w[k];
+            float g = (pos[k] - neg[k]) * inverse - decay * x;
+            float mk = beta1 * m[k] + keep1 * g;
+            float sk = beta2 * s[k] + keep2 * g * g;
+            m[k] = mk;
+            s[k] = sk;
+            w[k] = x + step * mk / ((float) Math.sqrt(sk) + epsilon);
+            pos[k] = 0;
+            neg[k] = 0;
+        }
+    }
+
+    // the mask of the lanes whose bits are set
+    private static VectorMask<Float> lanes(int bits) {
+        return IntVector.broadcast(INT_SPECIES, bits).and(LANE_BIT)
+                .compare(VectorOperators.NE, 0).cast(SPECIES);
+    }
+
+    private static void clear(float[] pos, float[] neg, int k) {
+        FloatVector zero = FloatVector.zero(SPECIES);
+        zero.intoArray(pos, k);
+        zero.intoArray(neg, k);
+    }
+}
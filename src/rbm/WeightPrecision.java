@@ -0,0 +1,46 @@
+package rbm;
+
+/*
+ * Enum: WeightPrecision
+ *
+ * How an InferenceModel stores its weights (see InferenceModel.of and
+ * InferenceModel.load).  A layer of v visible and h hidden units, biases
+ * included, takes about
+ *
+ *   FLOAT32  8vh bytes: the float weights, in both layouts, as trained;
+ *            loaded from a model file, none on the heap, since the weights
+ *            are read in place from the file's mapping
+ *   FLOAT16  4vh bytes: IEEE half precision, in both layouts
+ *   INT8     2vh bytes: each visible unit's row of weights as signed bytes
+ *            times one float scale for the row, in both layouts; the bias
+ *            weights stay float
+ *
+ * so a FLOAT16 model is half the size of a FLOAT32 one and an INT8 model a
+ * quarter.  (A SimpleLayeredRBM loaded for training holds 12vh bytes.)
+ *
+ * Error bound.  Each stored weight differs from the trained one by at most
+ *
+ *   FLOAT16  |w| * 2^-11, or 2^-25 for |w| < 2^-14
+ *   INT8     s / 2, where s = max |w| / 127 over the weights of w's row,
+ *            leaving out the biases, which are exact
+ *
+ * InferenceModel.getMaxWeightError reports the largest such difference in
+ * each layer, e.  A weighted sum into a unit adds one weight per active unit
+ * of the other layer, so it is off by at most a * e, where a is the number
+ * of active units (for mean-field inference, the sum of the activations);
+ * the sigmoid's slope is at most 1/4 (1 / (4 * annealing rate) for hidden
+ * units), so each activation probability is off by at most a * e / 4 in a
+ * single pass, or a * e / (4 * annealing rate) for a hidden unit.  In
+ * practice the errors largely cancel and the actual differences are far
+ * smaller (see benchmarks/baseline/quantization.txt).
+ *
+ * The bound is for one pass from the same unit states.  When sampling, a
+ * probability that moves past its uniform draw flips the unit, and the
+ * passes after it start from different states, so single sampled results
+ * can differ by more; MEAN_FIELD results have no such jumps.
+ */
+public enum WeightPrecision {
+    FLOAT32,
+    FLOAT16,
+    INT8
+}
@@ -0,0 +1,92 @@
+package rbm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Class: XoroshiroSampler
+ *
+ * Sampler backed by xoroshiro128+ (Blackman and Vigna).  Seeds are expanded
+ * with splitmix64.  The generator's low bits are weak, so floats are made from
+ * the high bits only; nextFloats takes two 24-bit floats from each output.
+ */
+public class XoroshiroSampler extends Sampler {
+
+    // gives unseeded samplers created at the same instant different seeds
+    private static final AtomicLong seedUniquifier = new AtomicLong(0x5DEECE66DL);
+
+    private long s0;
+    private long s1;
+
+    /*
+     * Constructor: seeds from the clock
+     */
+    public XoroshiroSampler() {
+        this(System.nanoTime() ^ seedUniquifier.addAndGet(0x9E3779B97F4A7C15L));
+    }
+
+    public XoroshiroSampler(long seed) {
+        setSeed(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        s0 = splitmix64(seed);
+        s1 = splitmix64(seed + 0x9E3779B97F4A7C15L);
+        if ((s0 | s1) == 0) {
+            s1 = 1;
+        }
+        resetGaussian();
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    public void nextFloats(float[] out, int count) {
+        int i = 0;
+        for (; i + 1 < count; i += 2) {
+            long r = nextLong();
+            out[i] = (r >>> 40) * 0x1.0p-24f;
+            out[i + 1] = ((r >>> 16) & 0xFFFFFF) * 0x1.0p-24f;
+        }
+        if (i < count) {
+            out[i] = nextFloat();
+        }
+    }
+
+    /*
+     * Method: getState / setState
+     *
+     * the generator's two words, so a checkpoint can carry on the sequence
+     * exactly; setState also drops any Gaussian kept back from a pair
+     */
+    long[] getState() {
+        return new long[] {s0, s1};
+    }
+
+    void setState(long[] state) {
+        s0 = state[0];
+        s1 = state[1];
+        resetGaussian();
+    }
+
+    @Override
+    public Sampler split() {
+        return new XoroshiroSampler(nextLong());
+    }
+
+    private static long splitmix64(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}